@@ -0,0 +1,96 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.bulk.BulkIngester;
+import com.scott.elastic.config.ElasticSearchConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步写入吞吐：{@code addDocAsync}经{@link BulkIngester}送达替身服务的速率
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(4)
+public class AsyncIngestBenchmark {
+
+    @Param({"1000", "10000"})
+    private int bulkActions;
+
+    @Param({"1", "2", "4"})
+    private int concurrentRequests;
+
+    private static final byte[] SOURCE_BYTES = StubElasticsearchServer.source().getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private StubElasticsearchServer server;
+    private EsTemplate esTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(0);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        config.setBulkActions(bulkActions);
+        config.setConcurrentRequests(concurrentRequests);
+        esTemplate = server.newTemplate(config);
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() {
+        esTemplate.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void addDocAsync() {
+        esTemplate.addDocAsync(StubElasticsearchServer.INDEX,
+                String.valueOf(sequence.incrementAndGet()), StubElasticsearchServer.source());
+    }
+
+    /**
+     * 生产者持有的是UTF-8字节时，解码为字符串再写入
+     */
+    @Benchmark
+    public void addDocAsyncDecoded() {
+        esTemplate.addDocAsync(StubElasticsearchServer.INDEX,
+                String.valueOf(sequence.incrementAndGet()), new String(SOURCE_BYTES, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 生产者持有的是UTF-8字节时，直接写入字节
+     */
+    @Benchmark
+    public void addDocAsyncBytes() {
+        esTemplate.addDocAsync(StubElasticsearchServer.INDEX,
+                String.valueOf(sequence.incrementAndGet()), SOURCE_BYTES);
+    }
+}
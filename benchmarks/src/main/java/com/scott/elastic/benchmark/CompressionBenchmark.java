@@ -0,0 +1,89 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.boot.RestClientFactory;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.http.EsRequestOptions;
+import com.scott.elastic.metrics.EsMetrics;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压缩的收益拐点：不同大小的bulk请求在不同带宽下开启和关闭gzip压缩的耗时
+ * <p>
+ * 带宽为0时不模拟传输，结果只反映压缩和解压的CPU开销；带宽越低、请求越大，节省的传输时间越容易超过压缩开销
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"1", "8", "64", "512"})
+    private int bodyKb;
+
+    /**
+     * 模拟的链路带宽，Mbit/s
+     */
+    @Param({"0", "100", "1000"})
+    private int bandwidthMbps;
+
+    @Param({"false", "true"})
+    private boolean compression;
+
+    private StubElasticsearchServer server;
+    private RestHighLevelClient client;
+    private BulkRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(0);
+        server.setBandwidth(bandwidthMbps * 1_000_000L / 8);
+
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        config.setCompressionEnabled(compression);
+        config.setCompressionThreshold(1);
+        client = RestClientFactory.build(config, new HttpHost[]{server.getHttpHost()}, Collections.emptyList(), EsMetrics.NOOP);
+
+        request = new BulkRequest();
+        for (int i = 0; request.estimatedSizeInBytes() < bodyKb * 1024L; i++) {
+            request.add(new IndexRequest(StubElasticsearchServer.INDEX).id(String.valueOf(i))
+                    .source(StubElasticsearchServer.source(), XContentType.JSON));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public BulkResponse bulk() throws Exception {
+        return client.bulk(request, EsRequestOptions.of(client));
+    }
+}
@@ -0,0 +1,121 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.boot.RestClientFactory;
+import com.scott.elastic.bulk.BulkIngester;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.limit.ConcurrencyLimitExceededException;
+import com.scott.elastic.limit.ConcurrencyLimiter;
+import com.scott.elastic.limit.OperationClass;
+import com.scott.elastic.metrics.EsMetrics;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 集群饱和时的检索耗时：替身服务每个请求耗时10ms、最多并行处理4个，32个线程同时检索，
+ * 不限制时所有请求在服务端排队，开启并发限制后超出部分短暂排队后被拒绝，被接受请求的排队时间随之缩短
+ * <p>
+ * 被拒绝的调用等待10ms后再发起下一次，同样计入耗时分布，每轮结束时另外输出被接受请求的平均耗时和拒绝比例
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(32)
+public class ConcurrencyLimitBenchmark {
+
+    private static final long REJECTED_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Param({"false", "true"})
+    private boolean limiting;
+
+    private StubElasticsearchServer server;
+    private EsTemplate esTemplate;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private SearchRequest request;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong servedNanos = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(10);
+        server.setLatency(10, TimeUnit.MILLISECONDS);
+
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setMaxConnPerRoute(32);
+        config.setMaxConnTotal(32);
+        final RestHighLevelClient client = RestClientFactory.build(config, new HttpHost[]{server.getHttpHost()},
+                Collections.emptyList(), EsMetrics.NOOP);
+        esTemplate = new EsTemplate(client, new BulkIngester(client, config, (bulk, reason) -> {
+        }));
+        if (limiting) {
+            concurrencyLimiter = new ConcurrencyLimiter(config.getConcurrencyLimitInitial(),
+                    config.getConcurrencyLimitMin(), config.getConcurrencyLimitMax(),
+                    config.getConcurrencyLimitQueueTimeoutUnit().toNanos(config.getConcurrencyLimitQueueTimeout()));
+            esTemplate.setConcurrencyLimiter(concurrencyLimiter);
+        }
+        request = new SearchRequest(StubElasticsearchServer.INDEX);
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        final long total = served.get() + rejected.get();
+        System.out.printf("served: %d, mean: %.1fms, rejected: %d (%.1f%%)%s%n", served.get(),
+                served.get() == 0 ? 0 : servedNanos.get() / 1e6 / served.get(), rejected.get(),
+                total == 0 ? 0 : 100.0 * rejected.get() / total,
+                concurrencyLimiter == null ? "" : ", read limit: " + concurrencyLimiter.getLimit(OperationClass.READ));
+        served.set(0);
+        servedNanos.set(0);
+        rejected.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        server.close();
+    }
+
+    @Benchmark
+    public ElasticsearchPageResult<SearchHit> search() {
+        final long start = System.nanoTime();
+        try {
+            final ElasticsearchPageResult<SearchHit> result = esTemplate.search((hit, rowNum) -> hit, request);
+            servedNanos.addAndGet(System.nanoTime() - start);
+            served.incrementAndGet();
+            return result;
+        } catch (ConcurrencyLimitExceededException e) {
+            rejected.incrementAndGet();
+            // 被拒绝的调用方通常直接返回错误，下一次请求稍后才到达，不原地重试
+            LockSupport.parkNanos(REJECTED_BACKOFF_NANOS);
+            return null;
+        }
+    }
+}
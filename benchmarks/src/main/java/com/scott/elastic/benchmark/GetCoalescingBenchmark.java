@@ -0,0 +1,75 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.api.GetCoalescer;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.metrics.EsMetrics;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程并发单文档get：逐个发出与合并为mget时的吞吐
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(32)
+public class GetCoalescingBenchmark {
+
+    @Param({"false", "true"})
+    private boolean coalesce;
+
+    private StubElasticsearchServer server;
+    private RestHighLevelClient coalescerClient;
+    private EsTemplate esTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(10);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        esTemplate = server.newTemplate(config);
+        if (coalesce) {
+            coalescerClient = server.newClient();
+            esTemplate.setGetCoalescer(new GetCoalescer(coalescerClient,
+                    TimeUnit.MILLISECONDS.toNanos(1), 100, EsMetrics.NOOP));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        esTemplate.close();
+        if (coalescerClient != null) {
+            coalescerClient.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public String get() {
+        return esTemplate.get(StubElasticsearchServer.INDEX, response -> response.getId(), null,
+                String.valueOf(ThreadLocalRandom.current().nextInt(10000)));
+    }
+}
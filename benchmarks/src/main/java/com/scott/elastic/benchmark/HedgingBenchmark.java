@@ -0,0 +1,84 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.api.SearchHedger;
+import com.scott.elastic.boot.RestClientFactory;
+import com.scott.elastic.bulk.BulkIngester;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.metrics.EsMetrics;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 偶发慢响应下的检索耗时分布：三个节点各有2%的请求停顿100ms，对比开启对冲前后的高分位耗时
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(8)
+public class HedgingBenchmark {
+
+    @Param({"false", "true"})
+    private boolean hedging;
+
+    private final StubElasticsearchServer[] servers = new StubElasticsearchServer[3];
+    private EsTemplate esTemplate;
+    private SearchRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final HttpHost[] hosts = new HttpHost[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = new StubElasticsearchServer(10);
+            servers[i].setStalls(0.02, 100, TimeUnit.MILLISECONDS);
+            hosts[i] = servers[i].getHttpHost();
+        }
+
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        final RestHighLevelClient client = RestClientFactory.build(config, hosts, Collections.emptyList(), EsMetrics.NOOP);
+        esTemplate = new EsTemplate(client, new BulkIngester(client, config, (bulk, reason) -> {
+        }));
+        if (hedging) {
+            esTemplate.setSearchHedger(new SearchHedger(client, 0, 95, 0.05, EsMetrics.NOOP));
+        }
+        request = new SearchRequest(StubElasticsearchServer.INDEX);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        for (StubElasticsearchServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public ElasticsearchPageResult<SearchHit> search() {
+        return esTemplate.search((hit, rowNum) -> hit, request);
+    }
+}
@@ -0,0 +1,123 @@
+package com.scott.elastic.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scott.elastic.api.JsonSourceMapper;
+import com.scott.elastic.api.SearchHitMapper;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不经过网络的{@link SearchHitMapper}映射吞吐，以及整页响应的解析开销
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HitMappingBenchmark {
+
+    @Param({"200", "2000"})
+    private int hits;
+
+    private byte[] responseBody;
+
+    private final SearchHitMapper<Vehicle> typedMapper = new JsonSourceMapper(new ObjectMapper()).hitMapper(Vehicle.class);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try (StubElasticsearchServer server = new StubElasticsearchServer(hits)) {
+            final URL url = new URL("http://" + server.getHttpHost().toHostString() + "/"
+                    + StubElasticsearchServer.INDEX + "/_search");
+            try (InputStream in = url.openStream()) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                responseBody = out.toByteArray();
+            }
+        }
+    }
+
+    private SearchResponse parse() throws Exception {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, responseBody)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    @Benchmark
+    public SearchResponse parseResponse() throws Exception {
+        return parse();
+    }
+
+    @Benchmark
+    public void parseAndMapSourceAsMap(Blackhole bh) throws Exception {
+        final SearchHitMapper<Object> mapper = (searchHit, rowNum) -> searchHit.getSourceAsMap();
+        parseAndMap(mapper, bh);
+    }
+
+    @Benchmark
+    public void parseAndMapSourceAsString(Blackhole bh) throws Exception {
+        final SearchHitMapper<Object> mapper = (searchHit, rowNum) -> searchHit.getSourceAsString();
+        parseAndMap(mapper, bh);
+    }
+
+    @Benchmark
+    public void parseAndMapTyped(Blackhole bh) throws Exception {
+        parseAndMap(typedMapper, bh);
+    }
+
+    /**
+     * SearchHit会缓存解析后的source，所以每次都从原始响应重新解析，映射开销为与{@link #parseResponse()}的差值
+     */
+    private void parseAndMap(SearchHitMapper<?> mapper, Blackhole bh) throws Exception {
+        int rowNum = 0;
+        for (SearchHit hit : parse().getHits()) {
+            bh.consume(mapper.mapRow(hit, rowNum++));
+        }
+    }
+
+    /**
+     * 与{@link StubElasticsearchServer#source()}字段一致的实体
+     */
+    public static class Vehicle {
+        public String vin;
+        public String plate;
+        public double speed;
+        public long mileage;
+        public int soc;
+        public boolean online;
+        public double lng;
+        public double lat;
+        public String time;
+        public List<String> tags;
+    }
+}
@@ -0,0 +1,78 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.cache.NearCache;
+import com.scott.elastic.config.ElasticSearchConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 近端缓存：反复读取同一批热点文档时get与mget的耗时
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class NearCacheBenchmark {
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private StubElasticsearchServer server;
+    private EsTemplate esTemplate;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(10);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        esTemplate = server.newTemplate(config);
+        if (cached) {
+            esTemplate.setNearCache(new NearCache(Collections.singleton(StubElasticsearchServer.INDEX),
+                    10000, TimeUnit.MINUTES.toMillis(10)));
+        }
+
+        ids = new String[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.valueOf(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Map<String, Object> get() {
+        return esTemplate.get(StubElasticsearchServer.INDEX, response -> response.getSourceAsMap(), null, "1");
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> mget() {
+        return esTemplate.mget(StubElasticsearchServer.INDEX,
+                (response, rowNum) -> response.getResponse().getSourceAsMap(), null, ids);
+    }
+}
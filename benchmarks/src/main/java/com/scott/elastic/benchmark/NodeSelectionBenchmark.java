@@ -0,0 +1,83 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.boot.RestClientFactory;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.metrics.EsMetrics;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 三个节点中一个变慢时的检索耗时分布：轮询时约三分之一的请求落到慢节点上，按延迟选择节点后慢节点只得到少量探测请求
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(8)
+public class NodeSelectionBenchmark {
+
+    @Param({"false", "true"})
+    private boolean latencyAware;
+
+    /**
+     * 慢节点每个请求额外的耗时，毫秒
+     */
+    @Param({"50"})
+    private int slowNodeLatency;
+
+    private final StubElasticsearchServer[] servers = new StubElasticsearchServer[3];
+    private RestHighLevelClient client;
+    private SearchRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final HttpHost[] hosts = new HttpHost[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = new StubElasticsearchServer(10);
+            hosts[i] = servers[i].getHttpHost();
+        }
+        servers[0].setLatency(slowNodeLatency, TimeUnit.MILLISECONDS);
+
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setLatencyAwareRoutingEnabled(latencyAware);
+        client = RestClientFactory.build(config, hosts, Collections.emptyList(), EsMetrics.NOOP);
+        request = new SearchRequest(StubElasticsearchServer.INDEX);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        for (StubElasticsearchServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public SearchResponse search() throws Exception {
+        return client.search(request, RequestOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,126 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.AsyncEsTemplate;
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.api.ReactiveEsTemplate;
+import com.scott.elastic.bulk.BulkLimits;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.dto.IndexDoc;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 响应式管道中的并发导出和写入：阻塞模板包在boundedElastic线程上执行，对比响应式模板直接返回的流，
+ * 每轮结束时输出进程的峰值线程数
+ * <p>
+ * 导出时32个流并发滚动读取，替身服务每次响应额外耗时5ms；写入时把文档流按批次写入
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReactiveStreamBenchmark {
+
+    private static final int STREAMS = 32;
+    private static final int DOCS_PER_STREAM = 6000;
+    private static final int BULK_DOCS = 50000;
+
+    @Param({"false", "true"})
+    private boolean reactive;
+
+    private StubElasticsearchServer server;
+    private RestHighLevelClient client;
+    private EsTemplate esTemplate;
+    private ReactiveEsTemplate reactiveEsTemplate;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(2000);
+        server.setLatency(5, TimeUnit.MILLISECONDS);
+
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setBulkActions(5000);
+        esTemplate = server.newTemplate(config);
+        client = server.newClient();
+        reactiveEsTemplate = new ReactiveEsTemplate(client, new AsyncEsTemplate(client), BulkLimits.of(config),
+                config.getFlushIntervalTimeUnit().toNanos(config.getFlushIntervalTime()));
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("peak threads: %d%n", threads.getPeakThreadCount());
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        esTemplate.close();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Long export() {
+        return Flux.range(0, STREAMS)
+                .flatMap(i -> scroll().take(DOCS_PER_STREAM), STREAMS)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long bulk() {
+        final Flux<IndexDoc> docs = Flux.range(0, BULK_DOCS).map(ReactiveStreamBenchmark::doc);
+        if (reactive) {
+            return reactiveEsTemplate.addDocs(StubElasticsearchServer.INDEX, false, docs)
+                    .count()
+                    .block();
+        }
+        return docs.buffer(5000)
+                .concatMap(batch -> Flux.just(batch)
+                        .publishOn(Schedulers.boundedElastic())
+                        .map(b -> esTemplate.addDoc(StubElasticsearchServer.INDEX, false, b.toArray(new IndexDoc[0]))))
+                .count()
+                .block();
+    }
+
+    private Flux<String> scroll() {
+        if (reactive) {
+            return reactiveEsTemplate.streamByScroll(QueryBuilders.matchAllQuery(), null, null, null,
+                    (hit, rowNum) -> hit.getId(), StubElasticsearchServer.INDEX);
+        }
+        return Flux.defer(() -> Flux.fromStream(esTemplate.streamByScroll(QueryBuilders.matchAllQuery(), null, null, null,
+                (hit, rowNum) -> hit.getId(), StubElasticsearchServer.INDEX)))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static IndexDoc doc(int i) {
+        final IndexDoc doc = new IndexDoc();
+        doc.setId(String.valueOf(i));
+        doc.setJsonString(StubElasticsearchServer.source());
+        return doc;
+    }
+}
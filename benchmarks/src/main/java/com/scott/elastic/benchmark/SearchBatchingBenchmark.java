@@ -0,0 +1,103 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.api.SearchBatcher;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.dto.MultiSearchResult;
+import com.scott.elastic.metrics.EsMetrics;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程并发检索：逐个发出与合并为msearch时的吞吐，以及单线程连续六个检索与一次msearch的耗时
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBatchingBenchmark {
+
+    @Param({"false", "true"})
+    private boolean batch;
+
+    private StubElasticsearchServer server;
+    private RestHighLevelClient batcherClient;
+    private EsTemplate esTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(10);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        esTemplate = server.newTemplate(config);
+        if (batch) {
+            batcherClient = server.newClient();
+            esTemplate.setSearchBatcher(new SearchBatcher(batcherClient,
+                    TimeUnit.MILLISECONDS.toNanos(1), 20, EsMetrics.NOOP));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        esTemplate.close();
+        if (batcherClient != null) {
+            batcherClient.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public ElasticsearchPageResult<String> concurrentSearch() {
+        return esTemplate.search((searchHit, rowNum) -> searchHit.getId(), request("vin"));
+    }
+
+    @Benchmark
+    public List<ElasticsearchPageResult<String>> sixSequentialSearches() {
+        final List<ElasticsearchPageResult<String>> results = new ArrayList<>(6);
+        for (int i = 0; i < 6; i++) {
+            results.add(esTemplate.search((searchHit, rowNum) -> searchHit.getId(), request("field" + i)));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<MultiSearchResult<ElasticsearchPageResult<String>>> sixInOneMsearch() {
+        final List<SearchRequest> requests = new ArrayList<>(6);
+        for (int i = 0; i < 6; i++) {
+            requests.add(request("field" + i));
+        }
+        return esTemplate.msearch((searchHit, rowNum) -> searchHit.getId(), requests);
+    }
+
+    private static SearchRequest request(String field) {
+        return new SearchRequest(StubElasticsearchServer.INDEX)
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery(field, "LSVAU2180N2183294")).size(10));
+    }
+}
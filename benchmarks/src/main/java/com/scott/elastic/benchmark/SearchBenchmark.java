@@ -0,0 +1,102 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.api.SearchHitMapper;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检索链路基准：请求序列化、响应解析以及{@link SearchHitMapper}逐行映射
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final SearchHitMapper<Map<String, Object>> SOURCE_AS_MAP =
+            (searchHit, rowNum) -> searchHit.getSourceAsMap();
+
+    @Param({"10", "200", "2000"})
+    private int hits;
+
+    private StubElasticsearchServer server;
+    private EsTemplate esTemplate;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(hits);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        esTemplate = server.newTemplate(config);
+
+        ids = new String[hits];
+        for (int i = 0; i < hits; i++) {
+            ids[i] = String.valueOf(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        server.close();
+    }
+
+    @Benchmark
+    public ElasticsearchPageResult<Map<String, Object>> search() {
+        final SearchRequest searchRequest = new SearchRequest(StubElasticsearchServer.INDEX);
+        searchRequest.source(new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("vin", "LSVAU2180N2183294"))
+                .size(hits));
+        return esTemplate.search(SOURCE_AS_MAP, searchRequest);
+    }
+
+    @Benchmark
+    public ElasticsearchPageResult<Map<String, Object>> searchStreaming() {
+        final SearchRequest searchRequest = new SearchRequest(StubElasticsearchServer.INDEX);
+        searchRequest.source(new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("vin", "LSVAU2180N2183294"))
+                .size(hits));
+        return esTemplate.searchStreaming(SOURCE_AS_MAP, searchRequest);
+    }
+
+    @Benchmark
+    public ElasticsearchPageResult<String> searchSourceAsString() {
+        final SearchRequest searchRequest = new SearchRequest(StubElasticsearchServer.INDEX);
+        searchRequest.source(new SearchSourceBuilder()
+                .query(QueryBuilders.matchAllQuery())
+                .size(hits));
+        return esTemplate.search((searchHit, rowNum) -> searchHit.getSourceAsString(), searchRequest);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> mget() {
+        return esTemplate.mget(StubElasticsearchServer.INDEX,
+                (response, rowNum) -> response.getResponse().getSourceAsMap(), null, ids);
+    }
+}
@@ -0,0 +1,74 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.bulk.BulkStriping;
+import com.scott.elastic.config.ElasticSearchConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程写入单个索引时，按文档ID分条带对{@code addDocAsync}吞吐的影响
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(32)
+public class StripedIngestBenchmark {
+
+    @Param({"1", "4", "8"})
+    private int stripes;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private StubElasticsearchServer server;
+    private EsTemplate esTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(0);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        config.setBulkActions(1000);
+        config.setConcurrentRequests(2);
+        config.setBulkStripes(stripes);
+        config.setBulkStripeBy(BulkStriping.ID);
+        esTemplate = server.newTemplate(config);
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() {
+        esTemplate.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void addDocAsync() {
+        esTemplate.addDocAsync(StubElasticsearchServer.INDEX,
+                String.valueOf(sequence.incrementAndGet()), StubElasticsearchServer.source());
+    }
+}
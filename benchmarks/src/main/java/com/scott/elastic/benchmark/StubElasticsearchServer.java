@@ -0,0 +1,320 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.bulk.BulkIngester;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 进程内的es替身服务，按请求路径返回预先生成的响应，用于隔离网络和集群因素后测量客户端开销
+ * <p>
+ * 支持gzip压缩的请求体和响应体，可按设定的带宽模拟传输耗时，或为请求增加固定或随机的耗时
+ *
+ * @author zhaogd
+ */
+public class StubElasticsearchServer implements AutoCloseable {
+
+    static final String INDEX = "bench";
+
+    private static final String SOURCE = "{\"vin\":\"LSVAU2180N2183294\",\"plate\":\"京A12345\",\"speed\":87.5,"
+            + "\"mileage\":123456,\"soc\":76,\"online\":true,\"lng\":116.397128,\"lat\":39.916527,"
+            + "\"time\":\"2020-02-06 12:00:00\",\"tags\":[\"a\",\"b\",\"c\"]}";
+
+    private static final Pattern MGET_ID = Pattern.compile("\"_id\":\"([^\"]*)\"");
+
+    static {
+        // 默认开启Nagle算法，小响应会与客户端的延迟确认叠加出约40ms的停顿，掩盖客户端本身的开销
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] searchResponse;
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * 模拟的链路带宽，字节每秒，0表示不限制
+     */
+    private volatile long bandwidth;
+
+    /**
+     * 模拟的额外响应耗时，纳秒
+     */
+    private volatile long latencyNanos;
+
+    /**
+     * 随机出现的停顿的概率和时长，纳秒
+     */
+    private volatile double stallProbability;
+    private volatile long stallNanos;
+
+    /**
+     * @param hits 检索返回的文档条数，批量get按请求的ID逐个返回
+     */
+    public StubElasticsearchServer(int hits) throws IOException {
+        this.searchResponse = buildSearchResponse(hits);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    public HttpHost getHttpHost() {
+        return new HttpHost(server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    public RestHighLevelClient newClient() {
+        return new RestHighLevelClient(RestClient.builder(getHttpHost()));
+    }
+
+    /**
+     * 按配置构建指向替身服务的模板，与自动配置类的装配方式一致
+     */
+    public EsTemplate newTemplate(ElasticSearchConfig config) {
+        final RestHighLevelClient client = newClient();
+        // 替身服务不会返回失败条目，死信直接丢弃
+        return new EsTemplate(client, new BulkIngester(client, config, (request, reason) -> {
+        }));
+    }
+
+    /**
+     * 按带宽模拟请求体和响应体的传输耗时，按网络上的字节数计算，请求压缩时按压缩后的大小
+     *
+     * @param bandwidth 字节每秒，0表示不限制
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * 每个请求额外等待的时间，模拟GC停顿或队列积压的节点
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * 按概率让请求额外停顿，模拟个别分片副本或节点偶发的慢响应
+     */
+    public void setStalls(double probability, long stall, TimeUnit unit) {
+        this.stallProbability = probability;
+        this.stallNanos = unit.toNanos(stall);
+    }
+
+    /**
+     * 已收到的请求数
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public static String source() {
+        return SOURCE;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        final String path = exchange.getRequestURI().getPath();
+        final byte[] wire = readAll(exchange.getRequestBody());
+        InputStream in = new ByteArrayInputStream(wire);
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            byte[] body;
+            if ("DELETE".equals(exchange.getRequestMethod()) && path.endsWith("/_search/scroll")) {
+                body = "{\"succeeded\":true,\"num_freed\":1}".getBytes(StandardCharsets.UTF_8);
+            } else if (path.endsWith("/_search") || path.endsWith("/_search/scroll")) {
+                body = searchResponse;
+            } else if ("GET".equals(exchange.getRequestMethod()) && path.contains("/_doc/")) {
+                body = buildGetResponse(path.substring(path.lastIndexOf('/') + 1));
+            } else if (path.endsWith("/_msearch")) {
+                body = buildMultiSearchResponse(in);
+            } else if (path.endsWith("/_mget")) {
+                body = buildMgetResponse(in);
+            } else if (path.endsWith("/_bulk")) {
+                body = buildBulkResponse(in);
+            } else {
+                body = "{}".getBytes(StandardCharsets.UTF_8);
+            }
+
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                body = gzip(body);
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            simulateTransfer(wire.length + body.length);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 按额外耗时、随机停顿和链路带宽等待，带宽按请求体和响应体在网络上传输所需的时间计算
+     */
+    private void simulateTransfer(long bytes) {
+        long nanos = latencyNanos + (bandwidth <= 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / bandwidth);
+        if (stallProbability > 0 && ThreadLocalRandom.current().nextDouble() < stallProbability) {
+            nanos += stallNanos;
+        }
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 按请求中的动作行逐条生成成功结果，保证批处理监听器拿到与请求数量一致的响应
+     */
+    private static byte[] buildBulkResponse(InputStream in) throws IOException {
+        final StringBuilder sb = new StringBuilder("{\"took\":1,\"errors\":false,\"items\":[");
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String action;
+            if (line.startsWith("{\"index\"")) {
+                action = "index";
+            } else if (line.startsWith("{\"create\"")) {
+                action = "create";
+            } else if (line.startsWith("{\"update\"")) {
+                action = "update";
+            } else if (line.startsWith("{\"delete\"")) {
+                action = "delete";
+            } else {
+                continue;
+            }
+            if (!"delete".equals(action)) {
+                reader.readLine();
+            }
+            if (count > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"").append(action).append("\":{\"_index\":\"").append(INDEX)
+                    .append("\",\"_type\":\"_doc\",\"_id\":\"").append(count)
+                    .append("\",\"_version\":1,\"result\":\"")
+                    .append("delete".equals(action) ? "deleted" : "index".equals(action) || "create".equals(action) ? "created" : "updated")
+                    .append("\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":")
+                    .append(count).append(",\"_primary_term\":1,\"status\":")
+                    .append("index".equals(action) || "create".equals(action) ? 201 : 200).append("}}");
+            count++;
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] buildSearchResponse(int hits) {
+        final StringBuilder sb = new StringBuilder("{\"_scroll_id\":\"stub\",\"took\":1,\"timed_out\":false,")
+                .append("\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":{\"value\":").append(hits).append(",\"relation\":\"eq\"},")
+                .append("\"max_score\":1.0,\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"_index\":\"").append(INDEX).append("\",\"_type\":\"_doc\",\"_id\":\"").append(i)
+                    .append("\",\"_score\":1.0,\"_source\":").append(SOURCE).append('}');
+        }
+        return sb.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 每对头部行和检索体返回一个检索结果
+     */
+    private byte[] buildMultiSearchResponse(InputStream in) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int lines = 0;
+        while (reader.readLine() != null) {
+            lines++;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("{\"took\":1,\"responses\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < lines / 2; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(searchResponse);
+        }
+        out.write("]}".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static byte[] buildGetResponse(String id) {
+        return ("{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"" + id
+                + "\",\"_version\":1,\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":" + SOURCE + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 按请求中的ID逐个生成文档，保证结果与请求一一对应
+     */
+    private static byte[] buildMgetResponse(InputStream in) throws IOException {
+        final Matcher matcher = MGET_ID.matcher(new String(readAll(in), StandardCharsets.UTF_8));
+
+        final StringBuilder sb = new StringBuilder("{\"docs\":[");
+        for (int i = 0; matcher.find(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"_index\":\"").append(INDEX).append("\",\"_type\":\"_doc\",\"_id\":\"").append(matcher.group(1))
+                    .append("\",\"_version\":1,\"_seq_no\":").append(i)
+                    .append(",\"_primary_term\":1,\"found\":true,\"_source\":").append(SOURCE).append('}');
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
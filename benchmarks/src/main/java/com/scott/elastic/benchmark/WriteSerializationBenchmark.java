@@ -0,0 +1,73 @@
+package com.scott.elastic.benchmark;
+
+import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.dto.IndexDoc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步写入链路基准：{@code addDoc}/{@code updateDoc}的请求构建、序列化与响应解析
+ *
+ * @author zhaogd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriteSerializationBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int docs;
+
+    private StubElasticsearchServer server;
+    private EsTemplate esTemplate;
+    private IndexDoc[] indexDocs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubElasticsearchServer(0);
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setHosts(server.getHttpHost().toHostString());
+        esTemplate = server.newTemplate(config);
+
+        indexDocs = new IndexDoc[docs];
+        for (int i = 0; i < docs; i++) {
+            final IndexDoc doc = new IndexDoc();
+            doc.setId(String.valueOf(i));
+            doc.setJsonString(StubElasticsearchServer.source());
+            indexDocs[i] = doc;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        esTemplate.close();
+        server.close();
+    }
+
+    @Benchmark
+    public boolean addDoc() {
+        return esTemplate.addDoc(StubElasticsearchServer.INDEX, false, indexDocs);
+    }
+
+    @Benchmark
+    public boolean updateDoc() {
+        return esTemplate.updateDoc(StubElasticsearchServer.INDEX, true, indexDocs);
+    }
+}
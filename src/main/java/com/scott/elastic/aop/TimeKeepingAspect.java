@@ -6,7 +6,8 @@ import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.StopWatch;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by IntelliJ IDEA.
@@ -27,21 +28,22 @@ public class TimeKeepingAspect {
     }
 
     /**
-     * 记录方法处理时间
+     * 记录方法处理时间，INFO未开启时直接执行，不计时也不拼接日志
+     * <p>
+     * 需要耗时分布时使用{@link com.scott.elastic.metrics.EsMetrics}
      */
     @Around("methodPointcut()")
     public Object doAround(ProceedingJoinPoint pjp) throws Throwable {
+        if (!logger.isInfoEnabled()) {
+            return pjp.proceed();
+        }
 
-        StopWatch sw = new StopWatch(pjp.getSignature().toString());
-        sw.start();
-
-        Object result;
+        final long start = System.nanoTime();
         try {
-            result = pjp.proceed();
+            return pjp.proceed();
         } finally {
-            sw.stop();
-            logger.info(sw.shortSummary());
+            logger.info("{}: running time (millis) = {}", pjp.getSignature(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         }
-        return result;
     }
 }
@@ -0,0 +1,21 @@
+package com.scott.elastic.api;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.RestHighLevelClient;
+
+/**
+ * Es异步操作模板的回调接口。要与{@link AsyncEsTemplate}的执行方法一起使用，在回调中调用客户端的*Async方法并传入监听器
+ *
+ * @author zhaogd
+ */
+public interface AsyncClientCallback<T> {
+
+    /**
+     * 由{@link AsyncEsTemplate}执行，使用Es客户端发起异步调用
+     *
+     * @param client   es客户端
+     * @param listener 结果监听器，需要传给客户端的*Async方法
+     * @throws Exception thrown by the es api
+     */
+    void doInClient(RestHighLevelClient client, ActionListener<T> listener) throws Exception;
+}
@@ -0,0 +1,244 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.dto.IndexDoc;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ES异步操作模板接口，与{@link EsOperations}一一对应，调用线程不等待es响应
+ *
+ * @author zhaogd
+ */
+public interface AsyncEsOperations {
+
+    /**
+     * 判断索引是否存在
+     *
+     * @param indices 索引名称
+     * @return 存在则返回true
+     */
+    CompletableFuture<Boolean> indicesExists(String... indices);
+
+    /**
+     * 执行异步回调，回调中抛出的异常与es返回的异常都会使结果异常结束
+     *
+     * @param action action type, implemented by {@link AsyncClientCallback}
+     * @return the result of the callback action
+     */
+    <T> CompletableFuture<T> execute(AsyncClientCallback<T> action);
+
+    /**
+     * GET
+     *
+     * @param index          index名称
+     * @param mapper         映射器
+     * @param sourceIncludes 需要返回的字段
+     * @param id             id
+     * @return 结果
+     */
+    <T> CompletableFuture<T> get(String index, GetResponseMapper<T> mapper, String[] sourceIncludes, String id);
+
+    /**
+     * 批量GET
+     *
+     * @param index          index名称
+     * @param mapper         映射器
+     * @param sourceIncludes 需要返回的字段
+     * @param ids            id列表
+     * @return 结果
+     */
+    <T> CompletableFuture<List<T>> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids);
+
+    /**
+     * 批量根据ID检索
+     *
+     * @param index          index名称
+     * @param mapper         映射器
+     * @param sourceIncludes 需要返回的字段
+     * @param ids            id列表
+     * @return 结果
+     */
+    <T> CompletableFuture<List<T>> ids(String index, SearchHitMapper<T> mapper, String[] sourceIncludes, String... ids);
+
+    /**
+     * 检索通用方法
+     *
+     * @param mapper        映射器
+     * @param searchRequest 检索请求
+     * @return 检索结果
+     */
+    <T> CompletableFuture<ElasticsearchPageResult<T>> search(SearchHitMapper<T> mapper, SearchRequest searchRequest);
+
+    /**
+     * 检索全部
+     *
+     * @param mapper  映射器
+     * @param size    返回条数
+     * @param indices index名称
+     * @return 检索结果
+     */
+    <T> CompletableFuture<ElasticsearchPageResult<T>> searchAll(SearchHitMapper<T> mapper, int size, String... indices);
+
+    /**
+     * 条件检索
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param pageNo         当前页
+     * @param pageSize       每页条数
+     * @param mapper         映射器
+     * @param indices        index名称
+     * @return 检索结果
+     */
+    <T> CompletableFuture<ElasticsearchPageResult<T>> searchDocs(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                                 String[] sourceIncludes, String[] sourceExcludes,
+                                                                 Integer pageNo, Integer pageSize,
+                                                                 SearchHitMapper<T> mapper, String... indices);
+
+    /**
+     * 游标翻页检索，基于search_after，深度翻页的开销与第一页相同
+     * <p>
+     * 配置了兜底排序字段时追加在排序末尾，否则排序需要以唯一字段结尾，排序值相同的文档可能在翻页时重复或遗漏。
+     * 兜底字段应为开启doc_values的keyword字段，不要使用_id，按_id排序会把_id的fielddata加载到堆内存。
+     * 只有第一页(cursor为空)统计总条数
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param cursor         上一页返回的游标，第一页传空
+     * @param pageSize       每页条数
+     * @param mapper         映射器
+     * @param indices        index名称
+     * @return 检索结果，包含下一页游标
+     */
+    <T> CompletableFuture<ElasticsearchPageResult<T>> searchDocsByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                                         String[] sourceIncludes, String[] sourceExcludes,
+                                                                         String cursor, Integer pageSize,
+                                                                         SearchHitMapper<T> mapper, String... indices);
+
+    /**
+     * 条件检索并聚合
+     *
+     * @param queryBuilder       查询条件
+     * @param sort               排序
+     * @param pageNo             当前页
+     * @param pageSize           每页条数
+     * @param aggregationBuilder 聚合条件
+     * @param mapper             映射器
+     * @param indices            index名称
+     * @return 检索结果
+     */
+    <T> CompletableFuture<T> searchIndexAndAggs(QueryBuilder queryBuilder, SortBuilder<?>[] sort, Integer pageNo, Integer pageSize,
+                                                AggregationBuilder aggregationBuilder, SearchResponseMapper<T> mapper, String... indices);
+
+    /**
+     * 聚合查询
+     *
+     * @param mapper             映射器
+     * @param queryBuilder       检索条件
+     * @param aggregationBuilder 聚合条件
+     * @param indices            索引名称
+     * @return 聚合结果
+     */
+    <T> CompletableFuture<T> aggregation(AggregationsMapper<T> mapper, QueryBuilder queryBuilder,
+                                         AggregationBuilder aggregationBuilder, String... indices);
+
+    /**
+     * 滚动查询
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param mapper         映射器
+     * @param indices        索引名称
+     * @return 结果
+     */
+    <T> CompletableFuture<T> searchByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort, String[] sourceIncludes,
+                                            String[] sourceExcludes, SearchResponseMapper<T> mapper, String... indices);
+
+    /**
+     * 根据滚动ID获取数据
+     *
+     * @param scrollId 滚动ID
+     * @param mapper   映射器
+     * @return 单次滚动结果
+     */
+    <T> CompletableFuture<T> searchByScrollId(String scrollId, SearchResponseMapper<T> mapper);
+
+    /**
+     * 批量处理文档
+     *
+     * @param bulk 批量请求
+     * @return 成功返回true
+     */
+    CompletableFuture<Boolean> bulk(BulkRequest bulk);
+
+    /**
+     * 批量新增文档
+     *
+     * @param index  索引名称
+     * @param create id存在时，是否跳过
+     * @param docs   需要新增的json字符串列表
+     * @return 新增结果
+     */
+    CompletableFuture<Boolean> addDoc(String index, boolean create, IndexDoc... docs);
+
+    /**
+     * 使用脚本更新文档
+     *
+     * @param index  索引名称
+     * @param script 脚本
+     * @param ids    ids
+     * @return 修改结果
+     */
+    CompletableFuture<Boolean> updateDocByScript(String index, Script script, String... ids);
+
+    /**
+     * 批量修改文档
+     *
+     * @param index       索引名称
+     * @param docAsUpsert id不存在时，是否新增
+     * @param docs        需要修改的json字符串列表
+     * @return 修改结果
+     */
+    CompletableFuture<Boolean> updateDoc(String index, boolean docAsUpsert, IndexDoc... docs);
+
+    /**
+     * 批量删除文档
+     *
+     * @param index 索引名称
+     * @param ids   id列表
+     * @return 结果
+     */
+    CompletableFuture<Boolean> deleteDoc(String index, String... ids);
+
+    /**
+     * 通过查询更新，失败的文档会使用脚本逐条补偿
+     *
+     * @param index        索引名称
+     * @param queryBuilder 查询条件
+     * @param script       更新脚本
+     * @return 更新结果信息
+     */
+    CompletableFuture<Boolean> updateByQuery(String index, QueryBuilder queryBuilder, Script script);
+
+    /**
+     * 手动刷新索引
+     *
+     * @param indices 索引名称
+     * @return 刷新完成
+     */
+    CompletableFuture<Void> refresh(String... indices);
+}
@@ -0,0 +1,296 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.dto.IndexDoc;
+import com.scott.elastic.http.EsRequestOptions;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * es异步操作模板类，基于客户端的*Async方法，结果通过{@link CompletableFuture}返回
+ * <p>
+ * 默认在客户端的IO线程上执行映射器，映射逻辑较重时可以指定映射线程池，避免阻塞其他请求的响应处理
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class AsyncEsTemplate implements AsyncEsOperations {
+
+    private final RestHighLevelClient client;
+    private final Executor mapperExecutor;
+
+    /**
+     * 游标翻页的兜底排序字段，为空时调用方的排序需要以唯一字段结尾
+     */
+    @Setter
+    private String cursorTiebreakerField;
+
+    public AsyncEsTemplate(RestHighLevelClient client) {
+        this(client, null);
+    }
+
+    /**
+     * @param client         es客户端
+     * @param mapperExecutor 执行映射器的线程池，为空时在客户端IO线程上执行
+     */
+    public AsyncEsTemplate(RestHighLevelClient client, Executor mapperExecutor) {
+        this.client = client;
+        this.mapperExecutor = mapperExecutor;
+    }
+
+
+    @Override
+    public CompletableFuture<Boolean> indicesExists(String... indices) {
+        GetIndexRequest request = new GetIndexRequest(indices);
+        return this.execute((client, listener) -> client.indices().existsAsync(request, EsRequestOptions.of(client), listener));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(AsyncClientCallback<T> action) {
+        Assert.notNull(action, "Callback object must not be null");
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            action.doInClient(client, new ActionListener<T>() {
+                @Override
+                public void onResponse(T response) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    log.error("es执行出错", e);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (Exception e) {
+            log.error("es执行出错", e);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 执行异步回调并对响应进行映射，映射器抛出的异常会使结果异常结束
+     */
+    private <R, T> CompletableFuture<T> execute(AsyncClientCallback<R> action, ResponseMapping<R, T> mapping) {
+        final Function<R, T> fn = response -> {
+            try {
+                return mapping.map(response);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+
+        final CompletableFuture<R> future = this.execute(action);
+        return mapperExecutor == null ? future.thenApply(fn) : future.thenApplyAsync(fn, mapperExecutor);
+    }
+
+
+    @Override
+    public <T> CompletableFuture<T> get(String index, GetResponseMapper<T> mapper, String[] sourceIncludes, String id) {
+        final GetRequest request = EsRequests.get(index, sourceIncludes, id);
+
+        return this.<GetResponse, T>execute(
+                (client, listener) -> client.getAsync(request, EsRequestOptions.of(client), listener),
+                mapper::mapRow);
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        final MultiGetRequest request = EsRequests.mget(index, sourceIncludes, ids);
+
+        return this.<MultiGetResponse, List<T>>execute(
+                (client, listener) -> client.mgetAsync(request, EsRequestOptions.of(client), listener),
+                response -> EsRequests.mapItems(response, mapper));
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> ids(String index, SearchHitMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        final SearchRequest request = EsRequests.ids(index, sourceIncludes, ids);
+
+        return this.<SearchResponse, List<T>>execute(
+                (client, listener) -> client.searchAsync(request, EsRequestOptions.of(client), listener),
+                response -> EsRequests.mapHits(response, mapper));
+    }
+
+
+    @Override
+    public <T> CompletableFuture<ElasticsearchPageResult<T>> search(SearchHitMapper<T> mapper, SearchRequest searchRequest) {
+        return this.<SearchResponse, ElasticsearchPageResult<T>>execute(
+                (client, listener) -> client.searchAsync(searchRequest, EsRequestOptions.of(client), listener),
+                response -> EsRequests.toPageResult(response, mapper));
+    }
+
+    @Override
+    public <T> CompletableFuture<ElasticsearchPageResult<T>> searchAll(SearchHitMapper<T> mapper, int size, String... indices) {
+        return this.search(mapper, EsRequests.searchAll(size, indices));
+    }
+
+    @Override
+    public <T> CompletableFuture<ElasticsearchPageResult<T>> searchDocs(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                                        String[] sourceIncludes, String[] sourceExcludes,
+                                                                        Integer pageNo, Integer pageSize,
+                                                                        SearchHitMapper<T> mapper, String... indices) {
+        return this.search(mapper, EsRequests.searchDocs(queryBuilder, sort, sourceIncludes, sourceExcludes,
+                pageNo, pageSize, indices));
+    }
+
+    @Override
+    public <T> CompletableFuture<ElasticsearchPageResult<T>> searchDocsByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                                                String[] sourceIncludes, String[] sourceExcludes,
+                                                                                String cursor, Integer pageSize,
+                                                                                SearchHitMapper<T> mapper, String... indices) {
+        final SearchRequest searchRequest = EsRequests.searchDocsByCursor(queryBuilder, sort, sourceIncludes, sourceExcludes,
+                cursor, pageSize, cursorTiebreakerField, indices);
+
+        return this.<SearchResponse, ElasticsearchPageResult<T>>execute(
+                (client, listener) -> client.searchAsync(searchRequest, EsRequestOptions.of(client), listener),
+                response -> EsRequests.toCursorPageResult(response, pageSize, mapper));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> searchIndexAndAggs(QueryBuilder queryBuilder, SortBuilder<?>[] sort, Integer pageNo, Integer pageSize,
+                                                       AggregationBuilder aggregationBuilder, SearchResponseMapper<T> mapper, String... indices) {
+        final SearchRequest searchRequest = EsRequests.searchIndexAndAggs(queryBuilder, sort, pageNo, pageSize,
+                aggregationBuilder, indices);
+
+        return this.<SearchResponse, T>execute(
+                (client, listener) -> client.searchAsync(searchRequest, EsRequestOptions.of(client), listener),
+                mapper::mapRow);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> aggregation(AggregationsMapper<T> mapper, QueryBuilder queryBuilder,
+                                                AggregationBuilder aggregationBuilder, String... indices) {
+        final SearchRequest searchRequest = EsRequests.aggregation(queryBuilder, aggregationBuilder, indices);
+
+        return this.<SearchResponse, T>execute(
+                (client, listener) -> client.searchAsync(searchRequest, EsRequestOptions.of(client), listener),
+                response -> mapper.mapRow(response.getAggregations()));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> searchByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort, String[] sourceIncludes,
+                                                   String[] sourceExcludes, SearchResponseMapper<T> mapper, String... indices) {
+        final SearchRequest searchRequest = EsRequests.scroll(queryBuilder, sort, sourceIncludes, sourceExcludes, indices);
+
+        return this.<SearchResponse, T>execute(
+                (client, listener) -> client.searchAsync(searchRequest, EsRequestOptions.of(client), listener),
+                mapper::mapRow);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> searchByScrollId(String scrollId, SearchResponseMapper<T> mapper) {
+        final SearchScrollRequest scrollRequest = EsRequests.scrollId(scrollId);
+
+        return this.<SearchResponse, T>execute(
+                (client, listener) -> client.scrollAsync(scrollRequest, EsRequestOptions.of(client), listener),
+                mapper::mapRow);
+    }
+
+
+    @Override
+    public CompletableFuture<Boolean> bulk(BulkRequest bulk) {
+        return this.<BulkResponse, Boolean>execute(
+                (client, listener) -> client.bulkAsync(bulk, EsRequestOptions.of(client), listener),
+                bulkResponse -> {
+                    if (bulkResponse.hasFailures()) {
+                        log.error("批量处理失败 {}", bulkResponse.buildFailureMessage());
+                        return false;
+                    }
+                    log.info("处理{}条记录,耗时:{}ms", bulk.numberOfActions(), bulkResponse.getTook().getMillis());
+                    return true;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addDoc(String index, boolean create, IndexDoc... docs) {
+        return this.bulk(EsRequests.addDoc(index, create, docs));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateDocByScript(String index, Script script, String... ids) {
+        return this.bulk(EsRequests.updateDocByScript(index, script, ids));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateDoc(String index, boolean docAsUpsert, IndexDoc... docs) {
+        return this.bulk(EsRequests.updateDoc(index, docAsUpsert, docs));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteDoc(String index, String... ids) {
+        return this.bulk(EsRequests.deleteDoc(index, ids));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateByQuery(String index, QueryBuilder queryBuilder, Script script) {
+        final UpdateByQueryRequest request = EsRequests.updateByQuery(index, queryBuilder, script);
+
+        return this.<BulkByScrollResponse, List<String>>execute(
+                (client, listener) -> client.updateByQueryAsync(request, EsRequestOptions.of(client), listener),
+                bulkResponse -> {
+                    log.info("通过查询更新结果：{}", bulkResponse.toString());
+                    List<String> errorIds = new ArrayList<>();
+                    for (BulkItemResponse.Failure bulkFailure : bulkResponse.getBulkFailures()) {
+                        errorIds.add(bulkFailure.getId());
+                        log.warn("查询更新失败：[ id : " + bulkFailure.getId() + ";" + "status : " + bulkFailure.getStatus() + ";" + "message : " + bulkFailure.getMessage() + "]");
+                    }
+                    return errorIds;
+                })
+                .thenCompose(errorIds -> {
+                    if (errorIds.isEmpty()) {
+                        return CompletableFuture.completedFuture(true);
+                    }
+                    log.info("更新失败数据补偿：{}", errorIds);
+                    return this.updateDocByScript(index, script, errorIds.toArray(new String[]{}));
+                });
+    }
+
+
+    @Override
+    public CompletableFuture<Void> refresh(String... indices) {
+        return this.<RefreshResponse, Void>execute(
+                (client, listener) -> client.indices().refreshAsync(new RefreshRequest(indices), EsRequestOptions.of(client), listener),
+                response -> null);
+    }
+
+
+    /**
+     * 响应映射，允许抛出受检异常
+     */
+    private interface ResponseMapping<R, T> {
+
+        T map(R response) throws Exception;
+    }
+}
@@ -0,0 +1,173 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.bulk.BulkLimits;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将写请求流攒成批量请求：攒满条数或字节数、或第一条请求等待超过刷新间隔时发出一批
+ * <p>
+ * 只有下游请求批次时才发出，当前批次已满或已到期但下游没有需求时不再向上游请求，背压一直传递到写请求的来源。
+ * 上游出错时尚未发出的批次丢弃，错误直接传给下游
+ *
+ * @author zhaogd
+ */
+class BulkBatcher extends BaseSubscriber<DocWriteRequest<?>> {
+
+    private final FluxSink<BulkRequest> sink;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long flushIntervalNanos;
+
+    private BulkRequest current = new BulkRequest();
+    private Disposable timer;
+    private boolean expired;
+
+    private boolean subscribed;
+    private boolean awaiting;
+    private boolean done;
+    private Throwable error;
+    private boolean terminated;
+
+    /**
+     * 正在发出或请求时有新的事件到达，需要再检查一次
+     */
+    private boolean draining;
+    private boolean missed;
+
+    private BulkBatcher(FluxSink<BulkRequest> sink, BulkLimits limits, long flushIntervalNanos) {
+        this.sink = sink;
+        this.maxActions = Math.max(1, limits.getActions());
+        this.maxBytes = limits.getBytes();
+        this.flushIntervalNanos = flushIntervalNanos;
+    }
+
+    /**
+     * @param flushIntervalNanos 批次从第一条请求开始的最长等待时间，0表示只按条数和字节数发出
+     */
+    static Flux<BulkRequest> batches(Publisher<? extends DocWriteRequest<?>> requests, BulkLimits limits,
+                                     long flushIntervalNanos) {
+        return Flux.create(sink -> {
+            final BulkBatcher batcher = new BulkBatcher(sink, limits, flushIntervalNanos);
+            sink.onRequest(n -> batcher.drain());
+            sink.onDispose(batcher::dispose);
+            requests.subscribe(batcher);
+        });
+    }
+
+    @Override
+    protected void hookOnSubscribe(Subscription subscription) {
+        synchronized (this) {
+            subscribed = true;
+        }
+        drain();
+    }
+
+    @Override
+    protected void hookOnNext(DocWriteRequest<?> request) {
+        synchronized (this) {
+            awaiting = false;
+            if (current.numberOfActions() == 0 && flushIntervalNanos > 0) {
+                final BulkRequest batch = current;
+                timer = Schedulers.parallel().schedule(() -> expire(batch), flushIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+            current.add(request);
+        }
+        drain();
+    }
+
+    @Override
+    protected void hookOnComplete() {
+        synchronized (this) {
+            done = true;
+        }
+        drain();
+    }
+
+    @Override
+    protected void hookOnError(Throwable throwable) {
+        synchronized (this) {
+            done = true;
+            error = throwable;
+        }
+        drain();
+    }
+
+    @Override
+    protected void hookFinally(SignalType type) {
+        cancelTimer();
+    }
+
+    private void expire(BulkRequest batch) {
+        synchronized (this) {
+            // 批次已经发出时不影响下一批
+            if (batch != current) {
+                return;
+            }
+            expired = true;
+        }
+        drain();
+    }
+
+    private synchronized void drain() {
+        if (draining) {
+            missed = true;
+            return;
+        }
+        draining = true;
+        try {
+            do {
+                missed = false;
+                if (terminated) {
+                    return;
+                }
+                if (error != null) {
+                    terminated = true;
+                    sink.error(error);
+                    return;
+                }
+
+                final int actions = current.numberOfActions();
+                if (actions > 0 && (full() || expired || done) && sink.requestedFromDownstream() > 0) {
+                    final BulkRequest batch = current;
+                    current = new BulkRequest();
+                    expired = false;
+                    cancelTimer();
+                    sink.next(batch);
+                    missed = true;
+                } else if (done && actions == 0) {
+                    terminated = true;
+                    sink.complete();
+                    return;
+                } else if (subscribed && !done && !awaiting && !full()) {
+                    awaiting = true;
+                    request(1);
+                }
+            } while (missed);
+        } finally {
+            draining = false;
+        }
+    }
+
+    private boolean full() {
+        return current.numberOfActions() >= maxActions
+                || (maxBytes > 0 && current.estimatedSizeInBytes() >= maxBytes);
+    }
+
+    private synchronized void cancelTimer() {
+        if (timer != null) {
+            timer.dispose();
+            timer = null;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.scott.elastic.api;
 
 import com.scott.elastic.dto.ElasticsearchPageResult;
 import com.scott.elastic.dto.IndexDoc;
+import com.scott.elastic.dto.MultiSearchResult;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -12,6 +13,8 @@ import org.elasticsearch.search.sort.SortBuilder;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * ES操作模板接口
@@ -49,6 +52,17 @@ public interface EsOperations {
      */
     <T> T get(String index, GetResponseMapper<T> mapper, String[] sourceIncludes, String id);
 
+    /**
+     * GET，source直接反序列化为实体
+     *
+     * @param index          index名称
+     * @param type           实体类型
+     * @param sourceIncludes 需要返回的字段
+     * @param id             id
+     * @return 结果，文档不存在时为空
+     */
+    <T> T get(String index, Class<T> type, String[] sourceIncludes, String id);
+
     /**
      * 批量GET
      *
@@ -60,6 +74,17 @@ public interface EsOperations {
      */
     <T> List<T> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids);
 
+    /**
+     * 批量GET，source直接反序列化为实体
+     *
+     * @param index          index名称
+     * @param type           实体类型
+     * @param sourceIncludes 需要返回的字段
+     * @param ids            id列表
+     * @return 结果，与id一一对应，文档不存在时为空
+     */
+    <T> List<T> mget(String index, Class<T> type, String[] sourceIncludes, String... ids);
+
     /**
      * 批量根据ID检索
      *
@@ -80,6 +105,44 @@ public interface EsOperations {
      */
     <T> ElasticsearchPageResult<T> search(SearchHitMapper<T> mapper, SearchRequest searchRequest);
 
+    /**
+     * 检索通用方法，命中结果的source直接反序列化为实体
+     *
+     * @param type          实体类型
+     * @param searchRequest 检索请求
+     * @return 检索结果
+     */
+    <T> ElasticsearchPageResult<T> search(Class<T> type, SearchRequest searchRequest);
+
+    /**
+     * 检索通用方法，通过低级客户端逐条解析命中结果并映射，不构建完整的检索响应
+     * <p>
+     * 适合大分页检索，只返回命中结果，忽略聚合
+     *
+     * @param mapper        映射器
+     * @param searchRequest 检索请求
+     * @return 检索结果
+     */
+    <T> ElasticsearchPageResult<T> searchStreaming(SearchHitMapper<T> mapper, SearchRequest searchRequest);
+
+    /**
+     * 多重检索，多个检索在一次请求中发出并由集群并行执行
+     *
+     * @param mapper         映射器，所有检索共用
+     * @param searchRequests 检索请求
+     * @return 按请求顺序排列的结果，单个检索失败不影响其他检索
+     */
+    <T> List<MultiSearchResult<ElasticsearchPageResult<T>>> msearch(SearchHitMapper<T> mapper, List<SearchRequest> searchRequests);
+
+    /**
+     * 多重检索，多个检索在一次请求中发出并由集群并行执行
+     *
+     * @param searchRequests 检索请求
+     * @param mappers        与检索请求一一对应的映射器
+     * @return 按请求顺序排列的结果，单个检索失败不影响其他检索
+     */
+    <T> List<MultiSearchResult<T>> msearch(List<SearchRequest> searchRequests, List<? extends SearchResponseMapper<? extends T>> mappers);
+
     /**
      * 检索全部
      *
@@ -108,6 +171,28 @@ public interface EsOperations {
                                               Integer pageNo, Integer pageSize,
                                               SearchHitMapper<T> mapper, String... indices);
 
+    /**
+     * 游标翻页检索，基于search_after，深度翻页的开销与第一页相同
+     * <p>
+     * 配置了兜底排序字段时追加在排序末尾，否则排序需要以唯一字段结尾，排序值相同的文档可能在翻页时重复或遗漏。
+     * 兜底字段应为开启doc_values的keyword字段，不要使用_id，按_id排序会把_id的fielddata加载到堆内存。
+     * 只有第一页(cursor为空)统计总条数
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param cursor         上一页返回的游标，第一页传空
+     * @param pageSize       每页条数
+     * @param mapper         映射器
+     * @param indices        index名称
+     * @return 检索结果，包含下一页游标
+     */
+    <T> ElasticsearchPageResult<T> searchDocsByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                      String[] sourceIncludes, String[] sourceExcludes,
+                                                      String cursor, Integer pageSize,
+                                                      SearchHitMapper<T> mapper, String... indices);
+
     /**
      * 条件检索并聚合
      *
@@ -145,6 +230,77 @@ public interface EsOperations {
      */
     <T> T searchByScrollId(String scrollId, SearchResponseMapper<T> mapper);
 
+    /**
+     * 流式滚动查询，消费当前批次时在后台预取下一批次，流读完或关闭时清除滚动上下文
+     * <p>
+     * 未读完就不再使用的流需要关闭，建议在try-with-resources中使用
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param mapper         映射器
+     * @param indices        索引名称
+     * @return 逐条映射后的结果流
+     */
+    <T> Stream<T> streamByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort, String[] sourceIncludes, String[] sourceExcludes, SearchHitMapper<T> mapper, String... indices);
+
+    /**
+     * 流式滚动查询，命中结果的source直接反序列化为实体
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param type           实体类型
+     * @param indices        索引名称
+     * @return 逐条映射后的结果流
+     */
+    <T> Stream<T> streamByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort, String[] sourceIncludes, String[] sourceExcludes, Class<T> type, String... indices);
+
+    /**
+     * 滚动查询全部结果，每个批次通过低级客户端逐条解析命中结果，映射后立即交给消费者，结束后清除滚动上下文
+     * <p>
+     * 内存中只保留当前解析的一条命中结果，适合大批量导出
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param mapper         映射器
+     * @param consumer       结果消费者
+     * @param indices        索引名称
+     * @return 处理的条数
+     */
+    <T> long scrollStreaming(QueryBuilder queryBuilder, SortBuilder<?>[] sort, String[] sourceIncludes, String[] sourceExcludes, SearchHitMapper<T> mapper, Consumer<? super T> consumer, String... indices);
+
+    /**
+     * 清除滚动上下文
+     *
+     * @param scrollIds 滚动ID
+     * @return 成功返回true
+     */
+    boolean clearScroll(String... scrollIds);
+
+    /**
+     * 分片并行导出，将查询拆成多个slice并行滚动，结果按批次交给消费者
+     * <p>
+     * 消费者会被多个线程同时调用，需要保证线程安全；分片数一般取索引主分片数的整数倍
+     *
+     * @param queryBuilder   查询条件
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param slices         分片数
+     * @param pageSize       每个分片每批次条数
+     * @param mapper         映射器
+     * @param consumer       结果消费者
+     * @param indices        索引名称
+     * @return 导出总条数
+     */
+    <T> long exportBySlices(QueryBuilder queryBuilder, String[] sourceIncludes, String[] sourceExcludes,
+                            int slices, int pageSize, SearchHitMapper<T> mapper, SliceConsumer<T> consumer,
+                            String... indices);
+
     /**
      * 批量处理文档
      *
@@ -229,6 +385,23 @@ public interface EsOperations {
      */
     void addDocAsync(String index, String id, String jsonString);
 
+    /**
+     * 异步新增，加入索引请求到缓冲池，字节原样放入请求体，不经过字符串转换
+     *
+     * @param index  索引名称
+     * @param source UTF-8编码的索引实体，交出后不应再修改
+     */
+    void addDocAsync(String index, byte[] source);
+
+    /**
+     * 异步新增，加入索引请求到缓冲池，字节原样放入请求体，不经过字符串转换
+     *
+     * @param index  索引名称
+     * @param id     ID
+     * @param source UTF-8编码的索引实体，交出后不应再修改
+     */
+    void addDocAsync(String index, String id, byte[] source);
+
     /**
      * 异步删除，加入删除请求到缓冲池
      *
@@ -257,6 +430,16 @@ public interface EsOperations {
      */
     void updateDocAsync(String index, String id, String jsonString, boolean docAsUpsert);
 
+    /**
+     * 异步更新，加入更新请求到缓冲池，字节原样放入请求体，不经过字符串转换
+     *
+     * @param index       索引名
+     * @param id          id
+     * @param source      UTF-8编码的更新请求体，交出后不应再修改
+     * @param docAsUpsert 不存在时是否新增
+     */
+    void updateDocAsync(String index, String id, byte[] source, boolean docAsUpsert);
+
     /**
      * 手动刷新索引
      *
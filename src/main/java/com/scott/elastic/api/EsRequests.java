@@ -0,0 +1,377 @@
+package com.scott.elastic.api;
+
+import com.google.common.base.Preconditions;
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.dto.IndexDoc;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 请求构建与结果映射，供同步与异步模板共用
+ *
+ * @author zhaogd
+ */
+final class EsRequests {
+
+    /**
+     * 滚动查询每批条数
+     */
+    static final int SCROLL_SIZE = 2000;
+
+    /**
+     * 滚动上下文保持时间
+     */
+    static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueSeconds(60);
+
+    private EsRequests() {
+    }
+
+    static GetRequest get(String index, String[] sourceIncludes, String id) {
+        final GetRequest request = new GetRequest(index, id);
+        FetchSourceContext fetchSourceContext =
+                new FetchSourceContext(true, sourceIncludes, null);
+        request.fetchSourceContext(fetchSourceContext);
+        return request;
+    }
+
+    static MultiGetRequest mget(String index, String[] sourceIncludes, String... ids) {
+        final MultiGetRequest request = new MultiGetRequest();
+        FetchSourceContext fetchSourceContext = new FetchSourceContext(true, sourceIncludes, null);
+
+        for (String id : ids) {
+            request.add(
+                    new MultiGetRequest.Item(index, id).fetchSourceContext(fetchSourceContext)
+            );
+        }
+        return request;
+    }
+
+    static SearchRequest ids(String index, String[] sourceIncludes, String... ids) {
+        final SearchRequest request = new SearchRequest(index);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(QueryBuilders.idsQuery().addIds(ids))
+                .fetchSource(sourceIncludes, null);
+        request.source(searchSourceBuilder);
+        return request;
+    }
+
+    static SearchRequest searchAll(int size, String... indices) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(QueryBuilders.matchAllQuery())
+                .size(size)
+                .trackTotalHits(true);
+
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    static SearchRequest searchDocs(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                    String[] sourceIncludes, String[] sourceExcludes,
+                                    Integer pageNo, Integer pageSize, String... indices) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder)
+                .fetchSource(sourceIncludes, sourceExcludes)
+                .from((pageNo - 1) * pageSize)
+                .size(pageSize)
+                .trackTotalHits(true);
+
+        for (SortBuilder<?> sortBuilder : sort) {
+            searchSourceBuilder.sort(sortBuilder);
+        }
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    /**
+     * 按search_after翻页，只有第一页(cursor为空)统计总条数
+     * <p>
+     * 配置了兜底排序字段且排序中没有时追加在末尾，保证排序值相同的文档顺序稳定；
+     * 未配置时不追加，排序为空则拒绝，调用方的排序需要以唯一字段结尾
+     *
+     * @param tiebreakerField 兜底排序字段，应为开启doc_values的唯一keyword字段，可为空
+     */
+    static SearchRequest searchDocsByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                            String[] sourceIncludes, String[] sourceExcludes,
+                                            String cursor, Integer pageSize, String tiebreakerField,
+                                            String... indices) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder)
+                .fetchSource(sourceIncludes, sourceExcludes)
+                .size(pageSize)
+                .trackTotalHits(cursor == null);
+
+        final boolean hasTiebreaker = StringUtils.isNotEmpty(tiebreakerField);
+        Preconditions.checkArgument(hasTiebreaker || ArrayUtils.isNotEmpty(sort),
+                "cursor paging requires a sort ending in a unique field, or spring.data.es.cursor-tiebreaker-field");
+
+        boolean sortedByTiebreaker = false;
+        if (sort != null) {
+            for (SortBuilder<?> sortBuilder : sort) {
+                searchSourceBuilder.sort(sortBuilder);
+                if (sortBuilder instanceof FieldSortBuilder
+                        && ((FieldSortBuilder) sortBuilder).getFieldName().equals(tiebreakerField)) {
+                    sortedByTiebreaker = true;
+                }
+            }
+        }
+        if (hasTiebreaker && !sortedByTiebreaker) {
+            searchSourceBuilder.sort(SortBuilders.fieldSort(tiebreakerField));
+        }
+        if (cursor != null) {
+            searchSourceBuilder.searchAfter(decodeCursor(cursor));
+        }
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    static SearchRequest searchIndexAndAggs(QueryBuilder queryBuilder, SortBuilder<?>[] sort, Integer pageNo, Integer pageSize,
+                                            AggregationBuilder aggregationBuilder, String... indices) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder)
+                .from((pageNo - 1) * pageSize)
+                .size(pageSize)
+                .aggregation(aggregationBuilder);
+
+        for (SortBuilder<?> sortBuilder : sort) {
+            searchSourceBuilder.sort(sortBuilder);
+        }
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    static SearchRequest aggregation(QueryBuilder queryBuilder, AggregationBuilder aggregationBuilder, String... indices) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder)
+                .size(0)
+                .aggregation(aggregationBuilder);
+
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    static SearchRequest scroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                String[] sourceIncludes, String[] sourceExcludes, String... indices) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder)
+                .size(SCROLL_SIZE)
+                .fetchSource(sourceIncludes, sourceExcludes);
+
+        if (sort == null || sort.length == 0) {
+            searchSourceBuilder.sort(SortBuilders.fieldSort("_doc"));
+        } else {
+            for (SortBuilder<?> sortBuilder : sort) {
+                searchSourceBuilder.sort(sortBuilder);
+            }
+        }
+        searchRequest.source(searchSourceBuilder);
+        searchRequest.scroll(SCROLL_KEEP_ALIVE);
+        return searchRequest;
+    }
+
+    static SearchScrollRequest scrollId(String scrollId) {
+        SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+        scrollRequest.scroll(SCROLL_KEEP_ALIVE);
+        return scrollRequest;
+    }
+
+    static BulkRequest addDoc(String index, boolean create, IndexDoc... docs) {
+        BulkRequest bulk = new BulkRequest(index);
+        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+
+        for (IndexDoc doc : docs) {
+            bulk.add(indexRequest(null, create, doc));
+        }
+        return bulk;
+    }
+
+    /**
+     * @param index 索引名称，为空时使用批量请求的全局索引
+     */
+    static IndexRequest indexRequest(String index, boolean create, IndexDoc doc) {
+        final IndexRequest request = index == null ? new IndexRequest() : new IndexRequest(index);
+        if (StringUtils.isNotBlank(doc.getId())) {
+            request.id(doc.getId());
+        }
+        request.create(create);
+        if (doc.getSource() != null) {
+            request.source(doc.getSource(), XContentType.JSON);
+        } else {
+            request.source(doc.getJsonString(), XContentType.JSON);
+        }
+        return request;
+    }
+
+    static BulkRequest updateDocByScript(String index, Script script, String... ids) {
+        BulkRequest bulk = new BulkRequest(index);
+        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+
+        for (String id : ids) {
+            final UpdateRequest updateRequest = new UpdateRequest();
+            updateRequest.id(id)
+                    .script(script)
+                    .retryOnConflict(3);
+
+            bulk.add(updateRequest);
+        }
+        return bulk;
+    }
+
+    static BulkRequest updateDoc(String index, boolean docAsUpsert, IndexDoc... docs) {
+        BulkRequest bulk = new BulkRequest(index);
+        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+
+        for (IndexDoc doc : docs) {
+            final UpdateRequest updateRequest = new UpdateRequest();
+            if (doc.getSource() != null) {
+                updateRequest.doc(doc.getSource(), XContentType.JSON);
+            } else {
+                updateRequest.doc(doc.getJsonString(), XContentType.JSON);
+            }
+            updateRequest.id(doc.getId())
+                    .docAsUpsert(docAsUpsert)
+                    .retryOnConflict(3);
+
+            bulk.add(updateRequest);
+        }
+        return bulk;
+    }
+
+    static BulkRequest deleteDoc(String index, String... ids) {
+        BulkRequest bulk = new BulkRequest(index);
+        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+
+        for (String id : ids) {
+            final DeleteRequest deleteRequest = new DeleteRequest().id(id);
+
+            bulk.add(deleteRequest);
+        }
+        return bulk;
+    }
+
+    static UpdateByQueryRequest updateByQuery(String index, QueryBuilder queryBuilder, Script script) {
+        UpdateByQueryRequest request = new UpdateByQueryRequest(index);
+        request.setQuery(queryBuilder)
+                .setScript(script)
+                .setRefresh(true);
+        return request;
+    }
+
+    static <T> List<T> mapItems(MultiGetResponse response, MultiGetItemMapper<T> mapper) throws Exception {
+        return mapItems(response.getResponses(), mapper);
+    }
+
+    static <T> List<T> mapItems(MultiGetItemResponse[] responses, MultiGetItemMapper<T> mapper) throws Exception {
+        List<T> rs = new ArrayList<>();
+        int rowNum = 0;
+        for (MultiGetItemResponse itemResponse : responses) {
+            rs.add(mapper.mapRow(itemResponse, rowNum++));
+        }
+        return rs;
+    }
+
+    static <T> List<T> mapHits(SearchResponse searchResponse, SearchHitMapper<T> mapper) throws Exception {
+        List<T> rs = new ArrayList<>();
+        int rowNum = 0;
+        for (SearchHit hit : searchResponse.getHits()) {
+            rs.add(mapper.mapRow(hit, rowNum++));
+        }
+        return rs;
+    }
+
+    /**
+     * 映射一页结果，满页时以最后一条的排序值生成下一页游标
+     */
+    static <T> ElasticsearchPageResult<T> toCursorPageResult(SearchResponse searchResponse, int pageSize,
+                                                              SearchHitMapper<T> mapper) throws Exception {
+        final ElasticsearchPageResult<T> result = new ElasticsearchPageResult<>();
+        final TotalHits totalHits = searchResponse.getHits().getTotalHits();
+        if (totalHits != null) {
+            result.setTotalCount(totalHits.value);
+            result.setRelation(totalHits.relation);
+        }
+        result.setData(mapHits(searchResponse, mapper));
+
+        final SearchHit[] hits = searchResponse.getHits().getHits();
+        if (hits.length > 0 && hits.length >= pageSize) {
+            result.setCursor(encodeCursor(hits[hits.length - 1].getSortValues()));
+        }
+        return result;
+    }
+
+    /**
+     * 将排序值编码为对调用方不透明的游标
+     */
+    static String encodeCursor(Object[] sortValues) throws IOException {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            builder.startArray();
+            for (Object sortValue : sortValues) {
+                builder.value(sortValue);
+            }
+            builder.endArray();
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(BytesReference.toBytes(BytesReference.bytes(builder)));
+        }
+    }
+
+    static Object[] decodeCursor(String cursor) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, Base64.getUrlDecoder().decode(cursor))) {
+            parser.nextToken();
+            return parser.list().toArray();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("cursor无效: " + cursor, e);
+        }
+    }
+
+    static <T> ElasticsearchPageResult<T> toPageResult(SearchResponse searchResponse, SearchHitMapper<T> mapper) throws Exception {
+        final ElasticsearchPageResult<T> result = new ElasticsearchPageResult<>();
+        result.setTotalCount(searchResponse.getHits().getTotalHits().value);
+        result.setRelation(searchResponse.getHits().getTotalHits().relation);
+        result.setData(mapHits(searchResponse, mapper));
+        return result;
+    }
+}
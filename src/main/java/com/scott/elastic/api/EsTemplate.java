@@ -1,47 +1,65 @@
 package com.scott.elastic.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scott.elastic.bulk.BulkIngester;
+import com.scott.elastic.cache.NearCache;
+import com.scott.elastic.cache.SearchResultCache;
 import com.scott.elastic.dto.ElasticsearchPageResult;
 import com.scott.elastic.dto.IndexDoc;
-import lombok.AllArgsConstructor;
+import com.scott.elastic.dto.MultiSearchResult;
+import com.scott.elastic.http.EsRequestOptions;
+import com.scott.elastic.limit.ConcurrencyLimiter;
+import com.scott.elastic.log.SlowRequestLog;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.*;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.GetIndexRequest;
-import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.UpdateByQueryRequest;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
-import org.elasticsearch.search.builder.SearchSourceBuilder;
-import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.sort.SortBuilder;
-import org.elasticsearch.search.sort.SortBuilders;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.util.Assert;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * es操作模板类
@@ -50,17 +68,103 @@ import java.util.concurrent.TimeUnit;
  * @date 2019/5/28
  */
 @Slf4j
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class EsTemplate implements EsOperations {
 
-    private RestHighLevelClient client;
-    private BulkProcessor bulkProcessor;
+    /**
+     * 滚动ID请求不指定索引，指标中使用固定标签
+     */
+    private static final String SCROLL_INDEX_TAG = "_scroll";
+
+    private final RestHighLevelClient client;
+    private final BulkIngester bulkIngester;
+
+    /**
+     * 关闭模板时是否同时关闭客户端，客户端由容器或调用方管理时应关闭此项
+     */
+    @Setter
+    private boolean closeClient = true;
+
+    /**
+     * 分片导出线程池，为空时每次导出临时创建
+     */
+    @Setter
+    private ExecutorService exportExecutor;
+
+    /**
+     * 操作指标
+     */
+    @Setter
+    private EsMetrics metrics = EsMetrics.NOOP;
+
+    /**
+     * 慢请求日志，只有慢请求或被采样的请求才会渲染请求体
+     */
+    @Setter
+    private SlowRequestLog slowRequestLog = SlowRequestLog.DISABLED;
+
+    /**
+     * 实体类型映射使用的反序列化器
+     */
+    @Setter
+    private JsonSourceMapper sourceMapper = new JsonSourceMapper(new ObjectMapper());
+
+    /**
+     * 将并发的get合并为mget，为空时每次get单独发出
+     */
+    @Setter
+    private GetCoalescer getCoalescer;
+
+    /**
+     * 将并发的search合并为msearch，为空时每次检索单独发出
+     */
+    @Setter
+    private SearchBatcher searchBatcher;
+
+    /**
+     * 对冲慢检索，为空时不对冲，同时设置合并检索时优先对冲
+     */
+    @Setter
+    private SearchHedger searchHedger;
+
+    /**
+     * 按操作类别限制并发调用，为空时不限制
+     */
+    @Setter
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * 聚合类检索的结果缓存，为空时不缓存
+     */
+    @Setter
+    private SearchResultCache searchResultCache;
+
+    /**
+     * 游标翻页的兜底排序字段，为空时调用方的排序需要以唯一字段结尾
+     */
+    @Setter
+    private String cursorTiebreakerField;
+
+    /**
+     * 按文档缓存get、mget和ids的结果
+     */
+    private NearCache nearCache = NearCache.DISABLED;
+
+
+    /**
+     * 开启近端缓存，异步写入的批次完成后使对应文档失效，只应设置一次
+     */
+    public void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+        bulkIngester.addListener(nearCache);
+    }
 
 
     @Override
     public Boolean indicesExists(String... indices) {
         GetIndexRequest request = new GetIndexRequest(indices);
-        return this.execute(client -> client.indices().exists(request, RequestOptions.DEFAULT));
+        return this.execute("indicesExists", EsMetrics.indexTag(indices),
+                client -> client.indices().exists(request, EsRequestOptions.of(client)));
     }
 
     @Override
@@ -75,58 +179,204 @@ public class EsTemplate implements EsOperations {
         }
     }
 
+    /**
+     * 执行回调并记录往返耗时与失败次数
+     */
+    private <T> T execute(String operation, String index, ClientCallback<T> action) {
+        return this.execute(operation, index, null, action);
+    }
+
+    /**
+     * 执行回调并记录往返耗时与失败次数，慢请求或被采样时输出请求。开启并发限制时先占用许可，超出上限的调用被拒绝
+     *
+     * @param request 请求，仅在需要输出时渲染
+     */
+    private <T> T execute(String operation, String index, @Nullable Object request, ClientCallback<T> action) {
+        final ConcurrencyLimiter.Permit permit = concurrencyLimiter != null ? concurrencyLimiter.acquire(operation) : null;
+        final long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return this.execute(action);
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+            final long nanos = System.nanoTime() - start;
+            metrics.recordLatency(operation, index, nanos, error);
+            slowRequestLog.log(client, operation, index, request, nanos, error);
+        }
+    }
+
+    /**
+     * 记录检索的服务端耗时与命中条数
+     */
+    private void recordSearch(String operation, String index, SearchResponse searchResponse) {
+        metrics.recordTook(operation, index, searchResponse.getTook().millis());
+        metrics.recordResultSize(operation, index, searchResponse.getHits().getHits().length);
+    }
+
+    private void recordSearch(String operation, String index, StreamingSearch.Page page) {
+        metrics.recordTook(operation, index, page.getTook());
+        metrics.recordResultSize(operation, index, page.getHits());
+    }
+
 
     @Override
     public <T> T get(String index, GetResponseMapper<T> mapper, String[] sourceIncludes, String id) {
-        final GetRequest request = new GetRequest(index, id);
-        FetchSourceContext fetchSourceContext =
-                new FetchSourceContext(true, sourceIncludes, null);
-        request.fetchSourceContext(fetchSourceContext);
+        final NearCache.Entry entry = nearCache.covers(index) ? nearCache.entry(index, id) : null;
+        final String variant = NearCache.variant("get", sourceIncludes);
+        final GetResponse cached = entry != null ? (GetResponse) entry.get(variant) : null;
+        if (cached != null) {
+            return this.execute(client -> mapper.mapRow(cached));
+        }
 
-        log.info("GetRequest: [{}]", request.toString());
-        return this.execute(client -> {
-            final GetResponse response = client.get(request, RequestOptions.DEFAULT);
+        final GetRequest request = EsRequests.get(index, sourceIncludes, id);
+
+        return this.execute("get", index, request, client -> {
+            final GetResponse response = getCoalescer != null
+                    ? await(getCoalescer.get(index, sourceIncludes, id))
+                    : client.get(request, EsRequestOptions.of(client));
+            metrics.recordResultSize("get", index, response.isExists() ? 1 : 0);
+            if (entry != null) {
+                entry.put(variant, response);
+            }
             return mapper.mapRow(response);
         });
     }
 
+    /**
+     * 等待合并发出的请求，取出原始异常
+     */
+    private static <R> R await(CompletableFuture<R> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     @Override
-    public <T> List<T> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids) {
-        final MultiGetRequest request = new MultiGetRequest();
-        FetchSourceContext fetchSourceContext = new FetchSourceContext(true, sourceIncludes, null);
+    public <T> T get(String index, Class<T> type, String[] sourceIncludes, String id) {
+        return this.get(index, sourceMapper.getMapper(type), sourceIncludes, id);
+    }
 
-        for (String id : ids) {
-            request.add(
-                    new MultiGetRequest.Item(index, id).fetchSourceContext(fetchSourceContext)
-            );
+    @Override
+    public <T> List<T> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        if (nearCache.covers(index)) {
+            return this.cachedMget(index, mapper, sourceIncludes, ids);
         }
+        final MultiGetRequest request = EsRequests.mget(index, sourceIncludes, ids);
 
-        log.info("MultiGetRequest Items: [{}]", request.getItems());
-        return this.execute(client -> {
-            final MultiGetResponse response = client.mget(request, RequestOptions.DEFAULT);
+        return this.execute("mget", index, request.getItems(), client -> {
+            final MultiGetResponse response = client.mget(request, EsRequestOptions.of(client));
+            metrics.recordResultSize("mget", index, response.getResponses().length);
+            return EsRequests.mapItems(response, mapper);
+        });
+    }
 
-            List<T> rs = new ArrayList<>();
-            int rowNum = 0;
-            for (MultiGetItemResponse itemResponse : response.getResponses()) {
-                rs.add(mapper.mapRow(itemResponse, rowNum++));
+    /**
+     * 只对未命中缓存的文档发起mget，结果按传入的ID顺序合并
+     */
+    private <T> List<T> cachedMget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        final String variant = NearCache.variant("get", sourceIncludes);
+        final MultiGetItemResponse[] items = new MultiGetItemResponse[ids.length];
+        final NearCache.Entry[] entries = new NearCache.Entry[ids.length];
+        final List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            entries[i] = nearCache.entry(index, ids[i]);
+            final GetResponse cached = (GetResponse) entries[i].get(variant);
+            if (cached != null) {
+                items[i] = new MultiGetItemResponse(cached, null);
+            } else {
+                missing.add(i);
             }
-            return rs;
-        });
+        }
+
+        if (!missing.isEmpty()) {
+            final String[] missingIds = missing.stream().map(i -> ids[i]).toArray(String[]::new);
+            final MultiGetRequest request = EsRequests.mget(index, sourceIncludes, missingIds);
+
+            final MultiGetItemResponse[] fetched = this.execute("mget", index, request.getItems(), client -> {
+                final MultiGetResponse response = client.mget(request, EsRequestOptions.of(client));
+                metrics.recordResultSize("mget", index, response.getResponses().length);
+                return response.getResponses();
+            });
+            for (int i = 0; i < fetched.length; i++) {
+                final int slot = missing.get(i);
+                items[slot] = fetched[i];
+                if (!fetched[i].isFailed()) {
+                    entries[slot].put(variant, fetched[i].getResponse());
+                }
+            }
+        }
+
+        return this.execute(client -> EsRequests.mapItems(items, mapper));
+    }
+
+    @Override
+    public <T> List<T> mget(String index, Class<T> type, String[] sourceIncludes, String... ids) {
+        return this.mget(index, sourceMapper.itemMapper(type), sourceIncludes, ids);
     }
 
     @Override
     public <T> List<T> ids(String index, SearchHitMapper<T> mapper, String[] sourceIncludes, String... ids) {
-        final SearchRequest request = new SearchRequest(index);
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(QueryBuilders.idsQuery().addIds(ids))
-                .fetchSource(sourceIncludes, null);
-        request.source(searchSourceBuilder);
+        if (nearCache.covers(index)) {
+            return this.cachedIds(index, mapper, sourceIncludes, ids);
+        }
+        final SearchRequest request = EsRequests.ids(index, sourceIncludes, ids);
+
+        return this.execute("ids", index, request, client -> {
+            final SearchResponse searchResponse = client.search(request, EsRequestOptions.of(client));
+            recordSearch("ids", index, searchResponse);
+            return EsRequests.mapHits(searchResponse, mapper);
+        });
+    }
+
+    /**
+     * 只检索未命中缓存的文档，结果按传入的ID顺序合并。检索结果不是实时的，不缓存未找到的文档
+     */
+    private <T> List<T> cachedIds(String index, SearchHitMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        final String variant = NearCache.variant("ids", sourceIncludes);
+        final SearchHit[] hits = new SearchHit[ids.length];
+        final Map<String, NearCache.Entry> missing = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            final NearCache.Entry entry = nearCache.entry(index, ids[i]);
+            hits[i] = (SearchHit) entry.get(variant);
+            if (hits[i] == null) {
+                missing.put(ids[i], entry);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            final SearchRequest request = EsRequests.ids(index, sourceIncludes, missing.keySet().toArray(new String[0]));
+
+            final Map<String, SearchHit> fetched = this.execute("ids", index, request, client -> {
+                final SearchResponse searchResponse = client.search(request, EsRequestOptions.of(client));
+                recordSearch("ids", index, searchResponse);
+                final Map<String, SearchHit> found = new HashMap<>();
+                for (SearchHit hit : searchResponse.getHits()) {
+                    found.put(hit.getId(), hit);
+                    missing.get(hit.getId()).put(variant, hit);
+                }
+                return found;
+            });
+            for (int i = 0; i < ids.length; i++) {
+                if (hits[i] == null) {
+                    hits[i] = fetched.get(ids[i]);
+                }
+            }
+        }
 
         return this.execute(client -> {
-            List<T> rs = new ArrayList<>();
+            final List<T> rs = new ArrayList<>();
             int rowNum = 0;
-            for (SearchHit hit : client.search(request, RequestOptions.DEFAULT).getHits()) {
-                rs.add(mapper.mapRow(hit, rowNum++));
+            for (SearchHit hit : hits) {
+                if (hit != null) {
+                    rs.add(mapper.mapRow(hit, rowNum++));
+                }
             }
             return rs;
         });
@@ -135,20 +385,89 @@ public class EsTemplate implements EsOperations {
 
     @Override
     public <T> ElasticsearchPageResult<T> search(SearchHitMapper<T> mapper, SearchRequest searchRequest) {
-        log.info("send request json:{}", searchRequest.toString());
-        return this.execute(client -> {
-            SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
+        final String index = EsMetrics.indexTag(searchRequest.indices());
+        return this.execute("search", index, searchRequest, client -> {
+            SearchResponse searchResponse = this.doSearch(searchRequest);
+            recordSearch("search", index, searchResponse);
+            return EsRequests.toPageResult(searchResponse, mapper);
+        });
+    }
 
-            List<T> rs = new ArrayList<>();
-            int rowNum = 0;
-            for (SearchHit hit : searchResponse.getHits()) {
-                rs.add(mapper.mapRow(hit, rowNum++));
+
+    /**
+     * 发出一次检索，按设置对冲或合并为msearch。滚动检索会在服务端创建上下文，两者都不适用
+     */
+    private SearchResponse doSearch(SearchRequest searchRequest) throws Exception {
+        if (searchRequest.scroll() == null) {
+            if (searchHedger != null) {
+                return await(searchHedger.search(searchRequest));
+            }
+            if (searchBatcher != null) {
+                return await(searchBatcher.search(searchRequest));
+            }
+        }
+        return client.search(searchRequest, EsRequestOptions.of(client));
+    }
+
+
+    @Override
+    public <T> List<MultiSearchResult<ElasticsearchPageResult<T>>> msearch(SearchHitMapper<T> mapper,
+                                                                           List<SearchRequest> searchRequests) {
+        final List<SearchResponseMapper<ElasticsearchPageResult<T>>> mappers = new ArrayList<>(searchRequests.size());
+        for (int i = 0; i < searchRequests.size(); i++) {
+            mappers.add(searchResponse -> EsRequests.toPageResult(searchResponse, mapper));
+        }
+        return this.msearch(searchRequests, mappers);
+    }
+
+    @Override
+    public <T> List<MultiSearchResult<T>> msearch(List<SearchRequest> searchRequests,
+                                                  List<? extends SearchResponseMapper<? extends T>> mappers) {
+        Assert.isTrue(searchRequests.size() == mappers.size(), "Each search request needs a mapper");
+        final MultiSearchRequest request = new MultiSearchRequest();
+        searchRequests.forEach(request::add);
+
+        final MultiSearchResponse.Item[] items = this.execute("msearch", SearchBatcher.MSEARCH_INDEX_TAG, searchRequests,
+                client -> client.msearch(request, EsRequestOptions.of(client)).getResponses());
+
+        final List<MultiSearchResult<T>> results = new ArrayList<>(items.length);
+        for (int i = 0; i < items.length; i++) {
+            final MultiSearchResult<T> result = new MultiSearchResult<>();
+            if (items[i].isFailure()) {
+                result.setFailure(items[i].getFailure());
+            } else {
+                final SearchResponse searchResponse = items[i].getResponse();
+                recordSearch("msearch", EsMetrics.indexTag(searchRequests.get(i).indices()), searchResponse);
+                try {
+                    result.setResult(mappers.get(i).mapRow(searchResponse));
+                } catch (Exception e) {
+                    result.setFailure(e);
+                }
             }
+            results.add(result);
+        }
+        return results;
+    }
+
+    @Override
+    public <T> ElasticsearchPageResult<T> search(Class<T> type, SearchRequest searchRequest) {
+        return this.search(sourceMapper.hitMapper(type), searchRequest);
+    }
+
+
+    @Override
+    public <T> ElasticsearchPageResult<T> searchStreaming(SearchHitMapper<T> mapper, SearchRequest searchRequest) {
+        final String index = EsMetrics.indexTag(searchRequest.indices());
+        return this.execute("searchStreaming", index, searchRequest, client -> {
+            final List<T> data = new ArrayList<>();
+            final StreamingSearch.Page page = StreamingSearch.search(client, searchRequest, mapper, data::add);
+            recordSearch("searchStreaming", index, page);
 
             final ElasticsearchPageResult<T> result = new ElasticsearchPageResult<>();
-            result.setTotalCount(searchResponse.getHits().getTotalHits().value);
-            result.setRelation(searchResponse.getHits().getTotalHits().relation);
-            result.setData(rs);
+            result.setTotalCount(page.getTotalCount());
+            result.setRelation(page.getRelation());
+            result.setScrollId(page.getScrollId());
+            result.setData(data);
             return result;
         });
     }
@@ -156,14 +475,7 @@ public class EsTemplate implements EsOperations {
 
     @Override
     public <T> ElasticsearchPageResult<T> searchAll(SearchHitMapper<T> mapper, int size, String... indices) {
-        SearchRequest searchRequest = new SearchRequest(indices);
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(QueryBuilders.matchAllQuery())
-                .size(size)
-                .trackTotalHits(true);
-
-        searchRequest.source(searchSourceBuilder);
-
+        SearchRequest searchRequest = EsRequests.searchAll(size, indices);
         return this.search(mapper, searchRequest);
     }
 
@@ -172,44 +484,38 @@ public class EsTemplate implements EsOperations {
                                                      String[] sourceIncludes, @Nullable String[] sourceExcludes,
                                                      Integer pageNo, Integer pageSize,
                                                      SearchHitMapper<T> mapper, String... indices) {
-        SearchRequest searchRequest = new SearchRequest(indices);
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(queryBuilder)
-                .fetchSource(sourceIncludes, sourceExcludes)
-                .from((pageNo - 1) * pageSize)
-                .size(pageSize)
-                .trackTotalHits(true);
-
-        for (SortBuilder<?> sortBuilder : sort) {
-            searchSourceBuilder.sort(sortBuilder);
-        }
-        searchRequest.source(searchSourceBuilder);
-
+        SearchRequest searchRequest = EsRequests.searchDocs(queryBuilder, sort, sourceIncludes, sourceExcludes,
+                pageNo, pageSize, indices);
         return this.search(mapper, searchRequest);
     }
 
 
+    @Override
+    public <T> ElasticsearchPageResult<T> searchDocsByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                             String[] sourceIncludes, @Nullable String[] sourceExcludes,
+                                                             @Nullable String cursor, Integer pageSize,
+                                                             SearchHitMapper<T> mapper, String... indices) {
+        SearchRequest searchRequest = EsRequests.searchDocsByCursor(queryBuilder, sort, sourceIncludes, sourceExcludes,
+                cursor, pageSize, cursorTiebreakerField, indices);
+
+        final String index = EsMetrics.indexTag(indices);
+        return this.execute("searchDocsByCursor", index, searchRequest, client -> {
+            SearchResponse searchResponse = this.doSearch(searchRequest);
+            recordSearch("searchDocsByCursor", index, searchResponse);
+            return EsRequests.toCursorPageResult(searchResponse, pageSize, mapper);
+        });
+    }
+
+
     @Override
     public <T> T searchIndexAndAggs(QueryBuilder queryBuilder, SortBuilder<?>[] sort, Integer pageNo, Integer pageSize,
                                     AggregationBuilder aggregationBuilder, SearchResponseMapper<T> mapper, String... indices) {
 
-        SearchRequest searchRequest = new SearchRequest(indices);
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(queryBuilder)
-                .from((pageNo - 1) * pageSize)
-                .size(pageSize)
-                .aggregation(aggregationBuilder);
+        SearchRequest searchRequest = EsRequests.searchIndexAndAggs(queryBuilder, sort, pageNo, pageSize,
+                aggregationBuilder, indices);
 
-        for (SortBuilder<?> sortBuilder : sort) {
-            searchSourceBuilder.sort(sortBuilder);
-        }
-        searchRequest.source(searchSourceBuilder);
-
-        log.info("send request json:{}", searchRequest.toString());
-        return this.execute(client -> {
-            final SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
-            return mapper.mapRow(searchResponse);
-        });
+        final SearchResponse searchResponse = this.cachedSearch("searchIndexAndAggs", searchRequest);
+        return this.execute(client -> mapper.mapRow(searchResponse));
     }
 
 
@@ -217,152 +523,200 @@ public class EsTemplate implements EsOperations {
     public <T> T searchByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
                                 String[] sourceIncludes, @Nullable String[] sourceExcludes,
                                 SearchResponseMapper<T> mapper, String... indices) {
-        SearchRequest searchRequest = new SearchRequest(indices);
-
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(queryBuilder)
-                .size(2000)
-                .fetchSource(sourceIncludes, sourceExcludes);
-
-        if (sort == null || sort.length == 0) {
-            searchSourceBuilder.sort(SortBuilders.fieldSort("_doc"));
-        } else {
-            for (SortBuilder<?> sortBuilder : sort) {
-                searchSourceBuilder.sort(sortBuilder);
-            }
-        }
-        searchRequest.source(searchSourceBuilder);
-        searchRequest.scroll(TimeValue.timeValueSeconds(60));
+        SearchRequest searchRequest = EsRequests.scroll(queryBuilder, sort, sourceIncludes, sourceExcludes, indices);
 
-        log.info("send request json:{}", searchSourceBuilder.toString());
-        return this.execute(client -> {
-            final SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
+        final String index = EsMetrics.indexTag(indices);
+        return this.execute("searchByScroll", index, searchRequest, client -> {
+            final SearchResponse searchResponse = client.search(searchRequest, EsRequestOptions.of(client));
+            recordSearch("searchByScroll", index, searchResponse);
             return mapper.mapRow(searchResponse);
         });
     }
 
     @Override
     public <T> T searchByScrollId(String scrollId, SearchResponseMapper<T> mapper) {
-        SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
-        scrollRequest.scroll(TimeValue.timeValueSeconds(60));
+        SearchScrollRequest scrollRequest = EsRequests.scrollId(scrollId);
 
-        log.info("searchByScrollId scrollID {}", scrollId);
-        return this.execute(client -> {
-            final SearchResponse searchResponse = client.scroll(scrollRequest, RequestOptions.DEFAULT);
+        return this.execute("searchByScrollId", SCROLL_INDEX_TAG, scrollId, client -> {
+            final SearchResponse searchResponse = client.scroll(scrollRequest, EsRequestOptions.of(client));
+            recordSearch("searchByScrollId", SCROLL_INDEX_TAG, searchResponse);
             return mapper.mapRow(searchResponse);
         });
     }
 
 
     @Override
-    public boolean bulk(BulkRequest bulk) {
-        return this.execute(client -> {
-            BulkResponse bulkResponse = client.bulk(bulk, RequestOptions.DEFAULT);
-
-            if (bulkResponse.hasFailures()) {
-                log.error("批量处理失败 {}", bulkResponse.buildFailureMessage());
-                return false;
-            }
-            log.info("处理{}条记录,耗时:{}ms", bulk.numberOfActions(), bulkResponse.getTook().getMillis());
-            return true;
+    public <T> Stream<T> streamByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                       String[] sourceIncludes, @Nullable String[] sourceExcludes,
+                                       SearchHitMapper<T> mapper, String... indices) {
+        SearchRequest searchRequest = EsRequests.scroll(queryBuilder, sort, sourceIncludes, sourceExcludes, indices);
+
+        final String index = EsMetrics.indexTag(indices);
+        final ScrollIterator<T> iterator = this.execute("streamByScroll", index, searchRequest, client -> {
+            final SearchResponse searchResponse = client.search(searchRequest, EsRequestOptions.of(client));
+            recordSearch("streamByScroll", index, searchResponse);
+            return new ScrollIterator<>(client, searchResponse, EsRequests.SCROLL_SIZE, mapper);
         });
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
     }
 
     @Override
-    public boolean addDoc(String index, boolean create, IndexDoc... docs) {
-        BulkRequest bulk = new BulkRequest(index);
-        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+    public <T> Stream<T> streamByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                       String[] sourceIncludes, @Nullable String[] sourceExcludes,
+                                       Class<T> type, String... indices) {
+        return this.streamByScroll(queryBuilder, sort, sourceIncludes, sourceExcludes, sourceMapper.hitMapper(type), indices);
+    }
 
-        for (IndexDoc doc : docs) {
-            final IndexRequest request = new IndexRequest();
-            if (StringUtils.isNotBlank(doc.getId())) {
-                request.id(doc.getId());
-            }
-            request.create(create);
-            request.source(doc.getJsonString(), XContentType.JSON);
+    @Override
+    public <T> long scrollStreaming(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                    String[] sourceIncludes, @Nullable String[] sourceExcludes,
+                                    SearchHitMapper<T> mapper, Consumer<? super T> consumer, String... indices) {
+        SearchRequest searchRequest = EsRequests.scroll(queryBuilder, sort, sourceIncludes, sourceExcludes, indices);
+
+        final String index = EsMetrics.indexTag(indices);
+        StreamingSearch.Page page = this.execute("scrollStreaming", index, searchRequest, client -> {
+            final StreamingSearch.Page first = StreamingSearch.search(client, searchRequest, mapper, consumer);
+            recordSearch("scrollStreaming", index, first);
+            return first;
+        });
 
-            bulk.add(request);
+        long total = page.getHits();
+        try {
+            while (page.getHits() > 0 && page.getScrollId() != null) {
+                final String scrollId = page.getScrollId();
+                page = this.execute("scrollStreaming", SCROLL_INDEX_TAG, scrollId, client -> {
+                    final StreamingSearch.Page next = StreamingSearch.scroll(client, scrollId,
+                            EsRequests.SCROLL_KEEP_ALIVE, mapper, consumer);
+                    recordSearch("scrollStreaming", SCROLL_INDEX_TAG, next);
+                    return next;
+                });
+                total += page.getHits();
+            }
+        } finally {
+            if (page.getScrollId() != null) {
+                this.clearScroll(page.getScrollId());
+            }
         }
+        return total;
+    }
+
+    @Override
+    public boolean clearScroll(String... scrollIds) {
+        ClearScrollRequest request = new ClearScrollRequest();
+        request.setScrollIds(Arrays.asList(scrollIds));
 
-        return this.bulk(bulk);
+        return this.execute("clearScroll", SCROLL_INDEX_TAG,
+                client -> client.clearScroll(request, EsRequestOptions.of(client)).isSucceeded());
     }
 
 
     @Override
-    public boolean updateDocByScript(String index, Script script, String... ids) {
-        BulkRequest bulk = new BulkRequest(index);
-        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+    public <T> long exportBySlices(QueryBuilder queryBuilder, String[] sourceIncludes, @Nullable String[] sourceExcludes,
+                                   int slices, int pageSize, SearchHitMapper<T> mapper, SliceConsumer<T> consumer,
+                                   String... indices) {
+        Assert.isTrue(slices > 0, "slices must be greater than 0");
+        Assert.isTrue(pageSize > 0, "pageSize must be greater than 0");
+
+        final SlicedScrollExporter<T> exporter = new SlicedScrollExporter<>(client, queryBuilder, sourceIncludes,
+                sourceExcludes, slices, pageSize, mapper, consumer, indices);
+
+        log.info("export indices {} with {} slices", Arrays.toString(indices), slices);
+        final String index = EsMetrics.indexTag(indices);
+        return this.execute("exportBySlices", index, queryBuilder, client -> {
+            long total;
+            if (exportExecutor != null) {
+                total = exporter.export(exportExecutor);
+            } else {
+                final ExecutorService executor = Executors.newFixedThreadPool(slices);
+                try {
+                    total = exporter.export(executor);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+            metrics.recordResultSize("exportBySlices", index, total);
+            return total;
+        });
+    }
 
-        for (String id : ids) {
-            final UpdateRequest updateRequest = new UpdateRequest();
-            updateRequest.id(id)
-                    .script(script)
-                    .retryOnConflict(3);
 
-            bulk.add(updateRequest);
+    @Override
+    public boolean bulk(BulkRequest bulk) {
+        final String index = bulk.requests().isEmpty() ? EsMetrics.indexTag() : bulk.requests().get(0).index();
+        // 请求前后各失效一次，避免写入期间的读取把旧文档放回缓存
+        nearCache.invalidate(bulk);
+        try {
+            return this.execute("bulk", index, client -> {
+                BulkResponse bulkResponse = client.bulk(bulk, EsRequestOptions.of(client));
+                metrics.recordTook("bulk", index, bulkResponse.getTook().millis());
+                metrics.recordResultSize("bulk", index, bulkResponse.getItems().length);
+
+                if (bulkResponse.hasFailures()) {
+                    log.error("批量处理失败 {}", bulkResponse.buildFailureMessage());
+                    return false;
+                }
+                log.info("处理{}条记录,耗时:{}ms", bulk.numberOfActions(), bulkResponse.getTook().getMillis());
+                return true;
+            });
+        } finally {
+            nearCache.invalidate(bulk);
         }
-
-        return this.bulk(bulk);
     }
 
     @Override
-    public boolean updateDoc(String index, boolean docAsUpsert, IndexDoc... docs) {
-        BulkRequest bulk = new BulkRequest(index);
-        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+    public boolean addDoc(String index, boolean create, IndexDoc... docs) {
+        return this.bulk(EsRequests.addDoc(index, create, docs));
+    }
 
-        for (IndexDoc doc : docs) {
-            final UpdateRequest updateRequest = new UpdateRequest();
-            updateRequest.id(doc.getId())
-                    .doc(doc.getJsonString(), XContentType.JSON)
-                    .docAsUpsert(docAsUpsert)
-                    .retryOnConflict(3);
 
-            bulk.add(updateRequest);
-        }
-        return this.bulk(bulk);
+    @Override
+    public boolean updateDocByScript(String index, Script script, String... ids) {
+        return this.bulk(EsRequests.updateDocByScript(index, script, ids));
     }
 
     @Override
-    public boolean deleteDoc(String index, String... ids) {
-        BulkRequest bulk = new BulkRequest(index);
-        bulk.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
-
-        for (String id : ids) {
-            final DeleteRequest deleteRequest = new DeleteRequest().id(id);
+    public boolean updateDoc(String index, boolean docAsUpsert, IndexDoc... docs) {
+        return this.bulk(EsRequests.updateDoc(index, docAsUpsert, docs));
+    }
 
-            bulk.add(deleteRequest);
-        }
-        return this.bulk(bulk);
+    @Override
+    public boolean deleteDoc(String index, String... ids) {
+        return this.bulk(EsRequests.deleteDoc(index, ids));
     }
 
 
     @Override
     public boolean updateByQuery(String index, QueryBuilder queryBuilder, Script script) {
-        UpdateByQueryRequest request = new UpdateByQueryRequest(index);
-        request.setQuery(queryBuilder)
-                .setScript(script)
-                .setRefresh(true);
-
-        log.info("send request json :" + request.toString());
-        return this.execute(client -> {
-            BulkByScrollResponse bulkResponse =
-                    client.updateByQuery(request, RequestOptions.DEFAULT);
-
-            log.info("通过查询更新结果：{}", bulkResponse.toString());
-            List<BulkItemResponse.Failure> bulkFailures = bulkResponse.getBulkFailures();
-            List<String> errorIds = new ArrayList<>();
-            for (BulkItemResponse.Failure bulkFailure : bulkFailures) {
-                errorIds.add(bulkFailure.getId());
-                log.warn("查询更新失败：[ id : " + bulkFailure.getId() + ";" + "status : " + bulkFailure.getStatus() + ";" + "message : " + bulkFailure.getMessage() + "]");
-            }
+        UpdateByQueryRequest request = EsRequests.updateByQuery(index, queryBuilder, script);
+        // 无法确定受影响的文档，整个索引失效
+        nearCache.invalidateAll(index);
+        try {
+            return this.execute("updateByQuery", index, request, client -> {
+                BulkByScrollResponse bulkResponse =
+                        client.updateByQuery(request, EsRequestOptions.of(client));
+                metrics.recordTook("updateByQuery", index, bulkResponse.getTook().millis());
+                metrics.recordResultSize("updateByQuery", index, bulkResponse.getUpdated());
+
+                log.info("通过查询更新结果：{}", bulkResponse.toString());
+                List<BulkItemResponse.Failure> bulkFailures = bulkResponse.getBulkFailures();
+                List<String> errorIds = new ArrayList<>();
+                for (BulkItemResponse.Failure bulkFailure : bulkFailures) {
+                    errorIds.add(bulkFailure.getId());
+                    log.warn("查询更新失败：[ id : " + bulkFailure.getId() + ";" + "status : " + bulkFailure.getStatus() + ";" + "message : " + bulkFailure.getMessage() + "]");
+                }
 
-            if (errorIds.isEmpty()) {
-                return true;
-            }
+                if (errorIds.isEmpty()) {
+                    return true;
+                }
 
-            log.info("更新失败数据补偿：{}", errorIds);
-            return this.updateDocByScript(index, script, errorIds.toArray(new String[]{}));
-        });
+                log.info("更新失败数据补偿：{}", errorIds);
+                return this.updateDocByScript(index, script, errorIds.toArray(new String[]{}));
+            });
+        } finally {
+            nearCache.invalidateAll(index);
+        }
     }
 
 
@@ -375,18 +729,22 @@ public class EsTemplate implements EsOperations {
      * @return 聚合结果
      */
     public <T> T aggregation(AggregationsMapper<T> mapper, QueryBuilder queryBuilder, AggregationBuilder aggregationBuilder, String... indices) {
-        SearchRequest searchRequest = new SearchRequest(indices);
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(queryBuilder)
-                .size(0)
-                .aggregation(aggregationBuilder);
-
-        searchRequest.source(searchSourceBuilder);
-        log.info("send request json:{}", searchRequest.toString());
-        return this.execute(client -> {
-            final SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
-            return mapper.mapRow(searchResponse.getAggregations());
+        SearchRequest searchRequest = EsRequests.aggregation(queryBuilder, aggregationBuilder, indices);
+        final SearchResponse searchResponse = this.cachedSearch("aggregation", searchRequest);
+        return this.execute(client -> mapper.mapRow(searchResponse.getAggregations()));
+    }
+
+    /**
+     * 执行聚合类检索，开启结果缓存时复用相同请求的响应
+     */
+    private SearchResponse cachedSearch(String operation, SearchRequest searchRequest) {
+        final String index = EsMetrics.indexTag(searchRequest.indices());
+        final Supplier<SearchResponse> search = () -> this.execute(operation, index, searchRequest, client -> {
+            final SearchResponse searchResponse = client.search(searchRequest, EsRequestOptions.of(client));
+            recordSearch(operation, index, searchResponse);
+            return searchResponse;
         });
+        return searchResultCache != null ? searchResultCache.get(searchRequest, search) : search.get();
     }
 
 
@@ -394,7 +752,7 @@ public class EsTemplate implements EsOperations {
     public void addDocAsync(String index, String jsonString) {
         final IndexRequest request = new IndexRequest(index)
                 .source(jsonString, XContentType.JSON);
-        bulkProcessor.add(request);
+        this.addAsync(request);
     }
 
     @Override
@@ -402,7 +760,7 @@ public class EsTemplate implements EsOperations {
         final IndexRequest request = new IndexRequest(index)
                 .id(id)
                 .source(json);
-        bulkProcessor.add(request);
+        this.addAsync(request);
     }
 
     @Override
@@ -410,13 +768,28 @@ public class EsTemplate implements EsOperations {
         final IndexRequest request = new IndexRequest(index)
                 .id(id)
                 .source(jsonString, XContentType.JSON);
-        bulkProcessor.add(request);
+        this.addAsync(request);
+    }
+
+    @Override
+    public void addDocAsync(String index, byte[] source) {
+        final IndexRequest request = new IndexRequest(index)
+                .source(source, XContentType.JSON);
+        this.addAsync(request);
+    }
+
+    @Override
+    public void addDocAsync(String index, String id, byte[] source) {
+        final IndexRequest request = new IndexRequest(index)
+                .id(id)
+                .source(source, XContentType.JSON);
+        this.addAsync(request);
     }
 
     @Override
     public void deleteDocAsync(String index, String id) {
         final DeleteRequest request = new DeleteRequest(index).id(id);
-        bulkProcessor.add(request);
+        this.addAsync(request);
     }
 
     @Override
@@ -427,7 +800,7 @@ public class EsTemplate implements EsOperations {
                 .doc(json)
                 .docAsUpsert(docAsUpsert)
                 .retryOnConflict(3);
-        bulkProcessor.add(updateRequest);
+        this.addAsync(updateRequest);
     }
 
     @Override
@@ -438,23 +811,55 @@ public class EsTemplate implements EsOperations {
                 .doc(jsonString, XContentType.JSON)
                 .docAsUpsert(docAsUpsert)
                 .retryOnConflict(3);
-        bulkProcessor.add(updateRequest);
+        this.addAsync(updateRequest);
+    }
+
+    @Override
+    public void updateDocAsync(String index, String id, byte[] source, boolean docAsUpsert) {
+        final UpdateRequest updateRequest = new UpdateRequest();
+        updateRequest.index(index)
+                .id(id)
+                .doc(source, XContentType.JSON)
+                .docAsUpsert(docAsUpsert)
+                .retryOnConflict(3);
+        this.addAsync(updateRequest);
     }
 
 
+    /**
+     * 放入异步写入管道，先使缓存失效，批次完成后再失效一次
+     */
+    private void addAsync(DocWriteRequest<?> request) {
+        nearCache.invalidate(request);
+        bulkIngester.add(request);
+    }
+
     @Override
     public void refresh(String... indices) {
-        this.execute(client -> client.indices().refresh(new RefreshRequest(indices), RequestOptions.DEFAULT));
+        this.execute("refresh", EsMetrics.indexTag(indices),
+                client -> client.indices().refresh(new RefreshRequest(indices), EsRequestOptions.of(client)));
     }
 
     @Override
     public void close() {
         try {
-            bulkProcessor.awaitClose(5, TimeUnit.MINUTES);
+            bulkIngester.awaitClose(5, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
             log.error(e.getMessage(), e);
         } finally {
-            if (client != null) {
+            if (exportExecutor != null) {
+                exportExecutor.shutdown();
+            }
+            if (getCoalescer != null) {
+                getCoalescer.close();
+            }
+            if (searchBatcher != null) {
+                searchBatcher.close();
+            }
+            if (searchHedger != null) {
+                searchHedger.close();
+            }
+            if (closeClient && client != null) {
                 try {
                     client.close();
                 } catch (IOException e) {
@@ -466,7 +871,7 @@ public class EsTemplate implements EsOperations {
 
     @Override
     public void flush() {
-        bulkProcessor.flush();
+        bulkIngester.flush();
     }
 
 }
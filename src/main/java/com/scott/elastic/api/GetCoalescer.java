@@ -0,0 +1,217 @@
+package com.scott.elastic.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.scott.elastic.http.EsRequestOptions;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将并发的单文档get合并为mget：同一索引、同一返回字段的get在时间窗口内攒成一批，
+ * 窗口到期或攒满后以一次mget发出，每个调用方取回自己的文档，同一批内重复的ID只查询一次
+ * <p>
+ * 批次由第一个请求开启并排期，mget异步发出，不占用排期线程；关闭后不再攒批，get直接单独发出
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class GetCoalescer implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final EsMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 正在攒批的批次
+     */
+    private final Map<BatchKey, Batch> batches = new HashMap<>();
+
+    /**
+     * 关闭后排期线程已停止，由batches的锁保护
+     */
+    private boolean closed;
+
+    /**
+     * @param windowNanos  批次从第一个请求开始的等待时间
+     * @param maxBatchSize 每批最多的文档数，攒满立即发出
+     */
+    public GetCoalescer(RestHighLevelClient client, long windowNanos, int maxBatchSize, EsMetrics metrics) {
+        this.client = client;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+        this.metrics = metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("es-get-coalescer-%d").setDaemon(true).build());
+    }
+
+    /**
+     * 加入当前批次
+     *
+     * @return 文档结果，mget失败或该条目失败时异常完成
+     */
+    public CompletableFuture<GetResponse> get(String index, String[] sourceIncludes, String id) {
+        final BatchKey key = new BatchKey(index, sourceIncludes == null ? null : Arrays.asList(sourceIncludes));
+        final CompletableFuture<GetResponse> future;
+        Batch full = null;
+        synchronized (batches) {
+            if (closed) {
+                future = null;
+            } else {
+                Batch batch = batches.get(key);
+                if (batch == null) {
+                    // 先排期再放入，排期失败时不会留下无人发出的批次
+                    final Batch scheduled = new Batch(key, sourceIncludes);
+                    scheduler.schedule(() -> dispatchIfCurrent(scheduled), windowNanos, TimeUnit.NANOSECONDS);
+                    batches.put(key, scheduled);
+                    batch = scheduled;
+                }
+                future = batch.futures.computeIfAbsent(id, k -> new CompletableFuture<>());
+                if (batch.futures.size() >= maxBatchSize) {
+                    batches.remove(key);
+                    full = batch;
+                }
+            }
+        }
+        if (future == null) {
+            return getDirectly(index, sourceIncludes, id);
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * 关闭后单独发出get
+     */
+    private CompletableFuture<GetResponse> getDirectly(String index, String[] sourceIncludes, String id) {
+        final CompletableFuture<GetResponse> future = new CompletableFuture<>();
+        final GetRequest request = EsRequests.get(index, sourceIncludes, id);
+        try {
+            client.getAsync(request, EsRequestOptions.of(client), new ActionListener<GetResponse>() {
+                @Override
+                public void onResponse(GetResponse response) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("es执行出错", e);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void dispatchIfCurrent(Batch batch) {
+        synchronized (batches) {
+            // 已攒满发出的批次不再重复发出
+            if (!batches.remove(batch.key, batch)) {
+                return;
+            }
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        final String index = batch.key.getIndex();
+        final List<String> ids = new ArrayList<>(batch.futures.keySet());
+        final MultiGetRequest request = EsRequests.mget(index, batch.sourceIncludes, ids.toArray(new String[0]));
+        final long start = System.nanoTime();
+
+        try {
+            client.mgetAsync(request, EsRequestOptions.of(client), new ActionListener<MultiGetResponse>() {
+                @Override
+                public void onResponse(MultiGetResponse response) {
+                    metrics.recordLatency("coalescedMget", index, System.nanoTime() - start, null);
+                    metrics.recordResultSize("coalescedMget", index, ids.size());
+                    final MultiGetItemResponse[] items = response.getResponses();
+                    for (int i = 0; i < ids.size(); i++) {
+                        final CompletableFuture<GetResponse> future = batch.futures.get(ids.get(i));
+                        if (items[i].isFailed()) {
+                            future.completeExceptionally(items[i].getFailure().getFailure());
+                        } else {
+                            future.complete(items[i].getResponse());
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    metrics.recordLatency("coalescedMget", index, System.nanoTime() - start, e);
+                    batch.fail(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("es执行出错", e);
+            batch.fail(e);
+        }
+    }
+
+    /**
+     * 发出所有未到期的批次后停止排期，之后的get不再合并
+     */
+    @Override
+    public void close() {
+        final List<Batch> remaining;
+        synchronized (batches) {
+            closed = true;
+            remaining = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        remaining.forEach(this::dispatch);
+        scheduler.shutdown();
+    }
+
+    @Value
+    private static class BatchKey {
+        String index;
+        List<String> sourceIncludes;
+    }
+
+    private static class Batch {
+
+        private final BatchKey key;
+        private final String[] sourceIncludes;
+
+        /**
+         * 按ID去重的调用方结果，按加入顺序发出
+         */
+        private final Map<String, CompletableFuture<GetResponse>> futures = new LinkedHashMap<>();
+
+        private Batch(BatchKey key, String[] sourceIncludes) {
+            this.key = key;
+            this.sourceIncludes = sourceIncludes;
+        }
+
+        private void fail(Exception e) {
+            for (CompletableFuture<GetResponse> future : futures.values()) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
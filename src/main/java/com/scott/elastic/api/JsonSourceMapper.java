@@ -0,0 +1,83 @@
+package com.scott.elastic.api;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 将文档source的原始字节直接反序列化为实体，不经过{@code getSourceAsMap()}构建中间Map
+ * <p>
+ * 每个实体类型缓存一个{@link ObjectReader}，并忽略实体中不存在的字段
+ *
+ * @author zhaogd
+ */
+public class JsonSourceMapper {
+
+    private final ObjectMapper objectMapper;
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public JsonSourceMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 命中结果映射为实体，没有source时为空
+     */
+    public <T> SearchHitMapper<T> hitMapper(Class<T> type) {
+        final ObjectReader reader = reader(type);
+        return (searchHit, rowNum) -> read(reader, searchHit.getSourceRef());
+    }
+
+    /**
+     * get结果映射为实体，文档不存在时为空
+     */
+    public <T> GetResponseMapper<T> getMapper(Class<T> type) {
+        final ObjectReader reader = reader(type);
+        return response -> response.isExists() ? read(reader, response.getSourceAsBytesRef()) : null;
+    }
+
+    /**
+     * 批量get结果映射为实体，文档不存在或该条失败时为空
+     */
+    public <T> MultiGetItemMapper<T> itemMapper(Class<T> type) {
+        final ObjectReader reader = reader(type);
+        return (item, rowNum) -> {
+            final GetResponse response = item.getResponse();
+            return item.isFailed() || !response.isExists() ? null : read(reader, response.getSourceAsBytesRef());
+        };
+    }
+
+    /**
+     * 将source字节反序列化为实体
+     */
+    public <T> T read(BytesReference source, Class<T> type) throws IOException {
+        return read(reader(type), source);
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, t -> objectMapper.readerFor(t)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+    }
+
+    private static <T> T read(ObjectReader reader, BytesReference source) throws IOException {
+        if (source == null || source.length() == 0) {
+            return null;
+        }
+        // 响应解析出的source是单个数组，直接读取不复制，其他实现走流避免合并
+        if (source instanceof BytesArray) {
+            final BytesArray bytes = (BytesArray) source;
+            return reader.readValue(bytes.array(), bytes.offset(), bytes.length());
+        }
+        try (InputStream in = source.streamInput()) {
+            return reader.readValue(in);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.dto.IndexDoc;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * ES响应式操作模板接口，单个结果以{@link Mono}返回，与{@link AsyncEsOperations}一一对应；
+ * 滚动和游标检索以{@link Flux}按下游需求逐页拉取，写请求流按批次写入
+ * <p>
+ * 所有操作在订阅时才发出请求
+ *
+ * @author zhaogd
+ */
+public interface ReactiveEsOperations {
+
+    /**
+     * 判断索引是否存在
+     *
+     * @param indices 索引名称
+     * @return 存在则返回true
+     */
+    Mono<Boolean> indicesExists(String... indices);
+
+    /**
+     * 执行异步回调，回调中抛出的异常与es返回的异常都会使结果异常结束
+     *
+     * @param action action type, implemented by {@link AsyncClientCallback}
+     * @return the result of the callback action
+     */
+    <T> Mono<T> execute(AsyncClientCallback<T> action);
+
+    /**
+     * GET
+     *
+     * @param index          index名称
+     * @param mapper         映射器
+     * @param sourceIncludes 需要返回的字段
+     * @param id             id
+     * @return 结果，映射为空时为空
+     */
+    <T> Mono<T> get(String index, GetResponseMapper<T> mapper, String[] sourceIncludes, String id);
+
+    /**
+     * 批量GET
+     *
+     * @param index          index名称
+     * @param mapper         映射器
+     * @param sourceIncludes 需要返回的字段
+     * @param ids            id列表
+     * @return 结果，与ids一一对应
+     */
+    <T> Mono<List<T>> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids);
+
+    /**
+     * 批量根据ID检索
+     *
+     * @param index          index名称
+     * @param mapper         映射器
+     * @param sourceIncludes 需要返回的字段
+     * @param ids            id列表
+     * @return 结果
+     */
+    <T> Mono<List<T>> ids(String index, SearchHitMapper<T> mapper, String[] sourceIncludes, String... ids);
+
+    /**
+     * 检索通用方法
+     *
+     * @param mapper        映射器
+     * @param searchRequest 检索请求
+     * @return 检索结果
+     */
+    <T> Mono<ElasticsearchPageResult<T>> search(SearchHitMapper<T> mapper, SearchRequest searchRequest);
+
+    /**
+     * 条件检索
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param pageNo         当前页
+     * @param pageSize       每页条数
+     * @param mapper         映射器
+     * @param indices        index名称
+     * @return 检索结果
+     */
+    <T> Mono<ElasticsearchPageResult<T>> searchDocs(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                    String[] sourceIncludes, String[] sourceExcludes,
+                                                    Integer pageNo, Integer pageSize,
+                                                    SearchHitMapper<T> mapper, String... indices);
+
+    /**
+     * 按search_after逐页检索全部命中，下游消费当前页时才拉取下一页，取消订阅后不再拉取
+     * <p>
+     * 兜底排序与{@link EsOperations#searchDocsByCursor}相同，不统计总条数
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param pageSize       每页条数
+     * @param mapper         映射器，返回空的命中被跳过
+     * @param indices        index名称
+     * @return 命中流
+     */
+    <T> Flux<T> streamByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                               String[] sourceIncludes, String[] sourceExcludes, int pageSize,
+                               SearchHitMapper<T> mapper, String... indices);
+
+    /**
+     * 滚动检索全部命中，下游消费当前批次时才拉取下一批次，完成、出错或取消订阅后清除滚动上下文
+     *
+     * @param queryBuilder   查询条件
+     * @param sort           排序
+     * @param sourceIncludes 需要返回的字段
+     * @param sourceExcludes 需要排除的字段
+     * @param mapper         映射器，返回空的命中被跳过
+     * @param indices        索引名称
+     * @return 命中流
+     */
+    <T> Flux<T> streamByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                               String[] sourceIncludes, String[] sourceExcludes,
+                               SearchHitMapper<T> mapper, String... indices);
+
+    /**
+     * 条件检索并聚合
+     *
+     * @param queryBuilder       查询条件
+     * @param sort               排序
+     * @param pageNo             当前页
+     * @param pageSize           每页条数
+     * @param aggregationBuilder 聚合条件
+     * @param mapper             映射器
+     * @param indices            index名称
+     * @return 检索结果
+     */
+    <T> Mono<T> searchIndexAndAggs(QueryBuilder queryBuilder, SortBuilder<?>[] sort, Integer pageNo, Integer pageSize,
+                                   AggregationBuilder aggregationBuilder, SearchResponseMapper<T> mapper, String... indices);
+
+    /**
+     * 聚合查询
+     *
+     * @param mapper             映射器
+     * @param queryBuilder       检索条件
+     * @param aggregationBuilder 聚合条件
+     * @param indices            索引名称
+     * @return 聚合结果
+     */
+    <T> Mono<T> aggregation(AggregationsMapper<T> mapper, QueryBuilder queryBuilder,
+                            AggregationBuilder aggregationBuilder, String... indices);
+
+    /**
+     * 批量处理文档
+     *
+     * @param bulk 批量请求
+     * @return 成功返回true
+     */
+    Mono<Boolean> bulk(BulkRequest bulk);
+
+    /**
+     * 按批次写入请求流，攒满条数或字节数、或等待超过刷新间隔时发出一批，按配置的并行度同时发送
+     * <p>
+     * 在途批次达到并行度或下游不再请求响应时停止从上游拉取。条目失败不会使流出错，需要检查响应
+     *
+     * @param requests 写请求流
+     * @return 各批次的响应，与批次顺序一致
+     */
+    Flux<BulkResponse> bulk(Publisher<? extends DocWriteRequest<?>> requests);
+
+    /**
+     * 按批次新增文档流
+     *
+     * @param index  索引名称
+     * @param create id存在时，是否跳过
+     * @param docs   文档流
+     * @return 各批次的响应，与批次顺序一致
+     */
+    Flux<BulkResponse> addDocs(String index, boolean create, Publisher<IndexDoc> docs);
+
+    /**
+     * 批量删除文档
+     *
+     * @param index 索引名称
+     * @param ids   id列表
+     * @return 结果
+     */
+    Mono<Boolean> deleteDoc(String index, String... ids);
+
+    /**
+     * 通过查询更新，失败的文档会使用脚本逐条补偿
+     *
+     * @param index        索引名称
+     * @param queryBuilder 查询条件
+     * @param script       更新脚本
+     * @return 更新结果信息
+     */
+    Mono<Boolean> updateByQuery(String index, QueryBuilder queryBuilder, Script script);
+
+    /**
+     * 手动刷新索引
+     *
+     * @param indices 索引名称
+     * @return 刷新完成
+     */
+    Mono<Void> refresh(String... indices);
+}
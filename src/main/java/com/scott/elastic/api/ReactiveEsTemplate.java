@@ -0,0 +1,281 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.bulk.BulkLimits;
+import com.scott.elastic.dto.ElasticsearchPageResult;
+import com.scott.elastic.dto.IndexDoc;
+import com.scott.elastic.http.EsRequestOptions;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * es响应式操作模板类，单个结果的操作复用{@link AsyncEsTemplate}，不占用调用线程
+ * <p>
+ * 逐页检索在下游请求时才发出下一页的请求，消费当前页时至多预取一页；取消订阅会中止进行中的请求。
+ * 映射器与{@link AsyncEsTemplate}一样默认在客户端IO线程上执行，映射逻辑较重时应在下游切换线程
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class ReactiveEsTemplate implements ReactiveEsOperations {
+
+    private final RestHighLevelClient client;
+    private final AsyncEsTemplate asyncTemplate;
+    private final BulkLimits bulkLimits;
+    private final long flushIntervalNanos;
+
+    /**
+     * 游标翻页的兜底排序字段，为空时调用方的排序需要以唯一字段结尾
+     */
+    @Setter
+    private String cursorTiebreakerField;
+
+    /**
+     * @param bulkLimits         写请求流的批次条数、字节数和并行发送的批次数
+     * @param flushIntervalNanos 批次从第一条请求开始的最长等待时间，0表示只按条数和字节数发出
+     */
+    public ReactiveEsTemplate(RestHighLevelClient client, AsyncEsTemplate asyncTemplate, BulkLimits bulkLimits,
+                              long flushIntervalNanos) {
+        this.client = client;
+        this.asyncTemplate = asyncTemplate;
+        this.bulkLimits = bulkLimits;
+        this.flushIntervalNanos = flushIntervalNanos;
+    }
+
+
+    @Override
+    public Mono<Boolean> indicesExists(String... indices) {
+        return defer(() -> asyncTemplate.indicesExists(indices));
+    }
+
+    @Override
+    public <T> Mono<T> execute(AsyncClientCallback<T> action) {
+        return defer(() -> asyncTemplate.execute(action));
+    }
+
+    @Override
+    public <T> Mono<T> get(String index, GetResponseMapper<T> mapper, String[] sourceIncludes, String id) {
+        return defer(() -> asyncTemplate.get(index, mapper, sourceIncludes, id));
+    }
+
+    @Override
+    public <T> Mono<List<T>> mget(String index, MultiGetItemMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        return defer(() -> asyncTemplate.mget(index, mapper, sourceIncludes, ids));
+    }
+
+    @Override
+    public <T> Mono<List<T>> ids(String index, SearchHitMapper<T> mapper, String[] sourceIncludes, String... ids) {
+        return defer(() -> asyncTemplate.ids(index, mapper, sourceIncludes, ids));
+    }
+
+    @Override
+    public <T> Mono<ElasticsearchPageResult<T>> search(SearchHitMapper<T> mapper, SearchRequest searchRequest) {
+        return defer(() -> asyncTemplate.search(mapper, searchRequest));
+    }
+
+    @Override
+    public <T> Mono<ElasticsearchPageResult<T>> searchDocs(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                                           String[] sourceIncludes, String[] sourceExcludes,
+                                                           Integer pageNo, Integer pageSize,
+                                                           SearchHitMapper<T> mapper, String... indices) {
+        return defer(() -> asyncTemplate.searchDocs(queryBuilder, sort, sourceIncludes, sourceExcludes,
+                pageNo, pageSize, mapper, indices));
+    }
+
+    @Override
+    public <T> Flux<T> streamByCursor(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                      String[] sourceIncludes, String[] sourceExcludes, int pageSize,
+                                      SearchHitMapper<T> mapper, String... indices) {
+        final Supplier<SearchRequest> request = () -> {
+            final SearchRequest searchRequest = EsRequests.searchDocsByCursor(queryBuilder, sort, sourceIncludes,
+                    sourceExcludes, null, pageSize, cursorTiebreakerField, indices);
+            searchRequest.source().trackTotalHits(false);
+            return searchRequest;
+        };
+
+        return Flux.defer(() -> {
+            final Flux<SearchResponse> pages = search(request.get()).expand(response -> {
+                final SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0 || hits.length < pageSize) {
+                    return Mono.empty();
+                }
+                final SearchRequest next = request.get();
+                next.source().searchAfter(hits[hits.length - 1].getSortValues());
+                return search(next);
+            });
+            return mapHits(pages, mapper);
+        });
+    }
+
+    @Override
+    public <T> Flux<T> streamByScroll(QueryBuilder queryBuilder, SortBuilder<?>[] sort,
+                                      String[] sourceIncludes, String[] sourceExcludes,
+                                      SearchHitMapper<T> mapper, String... indices) {
+        return Flux.defer(() -> {
+            final SearchRequest searchRequest = EsRequests.scroll(queryBuilder, sort, sourceIncludes, sourceExcludes, indices);
+            final AtomicReference<String> scrollId = new AtomicReference<>();
+
+            final Flux<SearchResponse> pages = search(searchRequest)
+                    .expand(response -> {
+                        if (response.getScrollId() == null || response.getHits().getHits().length < EsRequests.SCROLL_SIZE) {
+                            return Mono.empty();
+                        }
+                        return this.<SearchResponse>call((client, listener) -> client.scrollAsync(
+                                EsRequests.scrollId(response.getScrollId()), EsRequestOptions.of(client), listener));
+                    })
+                    .doOnNext(response -> scrollId.set(response.getScrollId()));
+            return mapHits(pages, mapper)
+                    .doFinally(signal -> ScrollIterator.clearScroll(client, scrollId.get()));
+        });
+    }
+
+    @Override
+    public <T> Mono<T> searchIndexAndAggs(QueryBuilder queryBuilder, SortBuilder<?>[] sort, Integer pageNo, Integer pageSize,
+                                          AggregationBuilder aggregationBuilder, SearchResponseMapper<T> mapper, String... indices) {
+        return defer(() -> asyncTemplate.searchIndexAndAggs(queryBuilder, sort, pageNo, pageSize,
+                aggregationBuilder, mapper, indices));
+    }
+
+    @Override
+    public <T> Mono<T> aggregation(AggregationsMapper<T> mapper, QueryBuilder queryBuilder,
+                                   AggregationBuilder aggregationBuilder, String... indices) {
+        return defer(() -> asyncTemplate.aggregation(mapper, queryBuilder, aggregationBuilder, indices));
+    }
+
+
+    @Override
+    public Mono<Boolean> bulk(BulkRequest bulk) {
+        return defer(() -> asyncTemplate.bulk(bulk));
+    }
+
+    @Override
+    public Flux<BulkResponse> bulk(Publisher<? extends DocWriteRequest<?>> requests) {
+        return BulkBatcher.batches(requests, bulkLimits, flushIntervalNanos)
+                .flatMapSequential(this::send, Math.max(1, bulkLimits.getConcurrency()), 1);
+    }
+
+    @Override
+    public Flux<BulkResponse> addDocs(String index, boolean create, Publisher<IndexDoc> docs) {
+        return this.bulk(Flux.from(docs).map(doc -> EsRequests.indexRequest(index, create, doc)));
+    }
+
+    private Mono<BulkResponse> send(BulkRequest bulk) {
+        return this.<BulkResponse>call((client, listener) -> client.bulkAsync(bulk, EsRequestOptions.of(client), listener))
+                .doOnNext(bulkResponse -> {
+                    if (bulkResponse.hasFailures()) {
+                        log.error("批量处理失败 {}", bulkResponse.buildFailureMessage());
+                    } else {
+                        log.debug("处理{}条记录,耗时:{}ms", bulk.numberOfActions(), bulkResponse.getTook().getMillis());
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Boolean> deleteDoc(String index, String... ids) {
+        return defer(() -> asyncTemplate.deleteDoc(index, ids));
+    }
+
+    @Override
+    public Mono<Boolean> updateByQuery(String index, QueryBuilder queryBuilder, Script script) {
+        return defer(() -> asyncTemplate.updateByQuery(index, queryBuilder, script));
+    }
+
+    @Override
+    public Mono<Void> refresh(String... indices) {
+        return defer(() -> asyncTemplate.refresh(indices));
+    }
+
+
+    private Mono<SearchResponse> search(SearchRequest searchRequest) {
+        return this.call((client, listener) -> client.searchAsync(searchRequest, EsRequestOptions.of(client), listener));
+    }
+
+    /**
+     * 逐页展开命中并映射，当前页开始消费时才请求下一页
+     */
+    private static <T> Flux<T> mapHits(Flux<SearchResponse> pages, SearchHitMapper<T> mapper) {
+        final AtomicInteger rowNum = new AtomicInteger();
+        return pages.concatMapIterable(response -> Arrays.asList(response.getHits().getHits()), 1)
+                .handle((hit, sink) -> {
+                    try {
+                        final T row = mapper.mapRow(hit, rowNum.getAndIncrement());
+                        if (row != null) {
+                            sink.next(row);
+                        }
+                    } catch (Exception e) {
+                        log.error("es执行出错", e);
+                        sink.error(e);
+                    }
+                });
+    }
+
+    /**
+     * 订阅时才调用异步模板，结果为空时完成为空
+     */
+    private static <T> Mono<T> defer(Supplier<CompletableFuture<T>> future) {
+        return Mono.defer(() -> Mono.fromFuture(future.get()));
+    }
+
+    /**
+     * 下游请求时才发出请求，取消订阅时中止请求
+     */
+    private <T> Mono<T> call(CancellableCallback<T> callback) {
+        return Mono.create(sink -> {
+            final AtomicBoolean sent = new AtomicBoolean();
+            sink.onRequest(n -> {
+                if (!sent.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    final Cancellable cancellable = callback.doInClient(client, new ActionListener<T>() {
+                        @Override
+                        public void onResponse(T response) {
+                            sink.success(response);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            log.error("es执行出错", e);
+                            sink.error(e);
+                        }
+                    });
+                    sink.onCancel(cancellable::cancel);
+                } catch (Exception e) {
+                    log.error("es执行出错", e);
+                    sink.error(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * 返回可取消请求的异步回调
+     */
+    private interface CancellableCallback<T> {
+
+        Cancellable doInClient(RestHighLevelClient client, ActionListener<T> listener) throws Exception;
+    }
+}
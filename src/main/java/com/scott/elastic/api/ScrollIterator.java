@@ -0,0 +1,165 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.http.EsRequestOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 滚动查询迭代器，消费当前批次时在后台预取下一批次，读完或关闭时清除滚动上下文
+ * <p>
+ * 非线程安全，只能由一个线程消费
+ *
+ * @author zhaogd
+ */
+@Slf4j
+class ScrollIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private final RestHighLevelClient client;
+    private final SearchHitMapper<T> mapper;
+    private final int pageSize;
+
+    private String scrollId;
+    private SearchHit[] hits;
+    private int position;
+    private int rowNum;
+
+    /**
+     * 预取中的下一批次，已是最后一批时为空
+     */
+    private CompletableFuture<SearchResponse> next;
+    private boolean released;
+
+    ScrollIterator(RestHighLevelClient client, SearchResponse firstResponse, int pageSize, SearchHitMapper<T> mapper) {
+        this.client = client;
+        this.mapper = mapper;
+        this.pageSize = pageSize;
+        accept(firstResponse);
+    }
+
+    private void accept(SearchResponse response) {
+        scrollId = response.getScrollId();
+        hits = response.getHits().getHits();
+        position = 0;
+
+        // 不足一批说明已经是最后一批，不再预取
+        if (hits.length < pageSize || scrollId == null) {
+            next = null;
+            releaseScroll();
+        } else {
+            next = prefetch(scrollId);
+        }
+    }
+
+    private CompletableFuture<SearchResponse> prefetch(String scrollId) {
+        final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        client.scrollAsync(EsRequests.scrollId(scrollId), EsRequestOptions.of(client), new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= hits.length) {
+            if (next == null) {
+                return false;
+            }
+            accept(await(next));
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final SearchHit hit = hits[position];
+        // 释放已消费的命中，避免整批一直驻留
+        hits[position++] = null;
+        try {
+            return mapper.mapRow(hit, rowNum++);
+        } catch (Exception e) {
+            close();
+            log.error("es执行出错", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private SearchResponse await(CompletableFuture<SearchResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            next = null;
+            close();
+            log.error("es执行出错", e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        hits = new SearchHit[0];
+        releaseScroll();
+    }
+
+    private void releaseScroll() {
+        if (released) {
+            return;
+        }
+        released = true;
+
+        final CompletableFuture<SearchResponse> pending = next;
+        next = null;
+        if (pending == null) {
+            clearScroll(client, scrollId);
+        } else {
+            // 预取请求还未返回时，等它返回后用最新的滚动ID清除
+            pending.whenComplete((response, e) -> clearScroll(client, response != null ? response.getScrollId() : scrollId));
+        }
+    }
+
+    /**
+     * 异步清除滚动上下文，失败只记录日志
+     */
+    static void clearScroll(RestHighLevelClient client, String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        final ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(scrollId);
+        client.clearScrollAsync(request, EsRequestOptions.of(client), new ActionListener<ClearScrollResponse>() {
+            @Override
+            public void onResponse(ClearScrollResponse response) {
+                log.debug("Scroll [{}] cleared, freed {} contexts", scrollId, response.getNumFreed());
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                log.warn("Unable to clear scroll [{}]", scrollId, e);
+            }
+        });
+    }
+}
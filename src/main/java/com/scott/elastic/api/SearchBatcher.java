@@ -0,0 +1,195 @@
+package com.scott.elastic.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.scott.elastic.http.EsRequestOptions;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将不同线程并发发起的检索合并为一次msearch：时间窗口内的检索攒成一批，窗口到期或攒满后一次发出，
+ * 集群并行执行各个检索，每个调用方取回自己的响应
+ * <p>
+ * 批次由第一个请求开启并排期，msearch异步发出，不占用排期线程；关闭后不再攒批，检索直接单独发出
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class SearchBatcher implements Closeable {
+
+    /**
+     * 多重检索不区分索引，指标中使用固定标签
+     */
+    static final String MSEARCH_INDEX_TAG = "_msearch";
+
+    private final RestHighLevelClient client;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final EsMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 正在攒批的批次，为空表示没有
+     */
+    private Batch current;
+
+    /**
+     * 关闭后排期线程已停止
+     */
+    private boolean closed;
+
+    /**
+     * @param windowNanos  批次从第一个请求开始的等待时间
+     * @param maxBatchSize 每批最多的检索数，攒满立即发出
+     */
+    public SearchBatcher(RestHighLevelClient client, long windowNanos, int maxBatchSize, EsMetrics metrics) {
+        this.client = client;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+        this.metrics = metrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("es-search-batcher-%d").setDaemon(true).build());
+    }
+
+    /**
+     * 加入当前批次
+     *
+     * @return 检索响应，msearch失败或该检索失败时异常完成
+     */
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        final boolean direct;
+        Batch full = null;
+        synchronized (this) {
+            direct = closed;
+            if (!direct) {
+                if (current == null) {
+                    // 先排期再放入，排期失败时不会留下无人发出的批次
+                    final Batch batch = new Batch();
+                    scheduler.schedule(() -> dispatchIfCurrent(batch), windowNanos, TimeUnit.NANOSECONDS);
+                    current = batch;
+                }
+                current.requests.add(request);
+                current.futures.add(future);
+                if (current.requests.size() >= maxBatchSize) {
+                    full = current;
+                    current = null;
+                }
+            }
+        }
+        if (direct) {
+            searchDirectly(request, future);
+        } else if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * 关闭后单独发出检索
+     */
+    private void searchDirectly(SearchRequest request, CompletableFuture<SearchResponse> future) {
+        try {
+            client.searchAsync(request, EsRequestOptions.of(client), new ActionListener<SearchResponse>() {
+                @Override
+                public void onResponse(SearchResponse response) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("es执行出错", e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void dispatchIfCurrent(Batch batch) {
+        synchronized (this) {
+            // 已攒满发出的批次不再重复发出
+            if (current != batch) {
+                return;
+            }
+            current = null;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        final MultiSearchRequest request = new MultiSearchRequest();
+        batch.requests.forEach(request::add);
+        final long start = System.nanoTime();
+
+        try {
+            client.msearchAsync(request, EsRequestOptions.of(client), new ActionListener<MultiSearchResponse>() {
+                @Override
+                public void onResponse(MultiSearchResponse response) {
+                    metrics.recordLatency("batchedMsearch", MSEARCH_INDEX_TAG, System.nanoTime() - start, null);
+                    metrics.recordResultSize("batchedMsearch", MSEARCH_INDEX_TAG, batch.requests.size());
+                    final MultiSearchResponse.Item[] items = response.getResponses();
+                    for (int i = 0; i < items.length; i++) {
+                        if (items[i].isFailure()) {
+                            batch.futures.get(i).completeExceptionally(items[i].getFailure());
+                        } else {
+                            batch.futures.get(i).complete(items[i].getResponse());
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    metrics.recordLatency("batchedMsearch", MSEARCH_INDEX_TAG, System.nanoTime() - start, e);
+                    batch.fail(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("es执行出错", e);
+            batch.fail(e);
+        }
+    }
+
+    /**
+     * 发出未到期的批次后停止排期，之后的检索不再合并
+     */
+    @Override
+    public void close() {
+        final Batch remaining;
+        synchronized (this) {
+            closed = true;
+            remaining = current;
+            current = null;
+        }
+        if (remaining != null) {
+            dispatch(remaining);
+        }
+        scheduler.shutdown();
+    }
+
+    private static class Batch {
+
+        private final List<SearchRequest> requests = new ArrayList<>();
+        private final List<CompletableFuture<SearchResponse>> futures = new ArrayList<>();
+
+        private void fail(Exception e) {
+            for (CompletableFuture<SearchResponse> future : futures) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
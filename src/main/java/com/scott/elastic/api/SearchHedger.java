@@ -0,0 +1,242 @@
+package com.scott.elastic.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.scott.elastic.http.EsRequestOptions;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对冲检索：检索超过延迟仍未返回时，以不同的preference再发出一次相同的检索，采用先返回的结果
+ * <p>
+ * 延迟可以固定，也可以取最近检索耗时的分位数，样本不足时不对冲。对冲请求数受预算限制，
+ * 每次检索积累预算比例的额度，对冲一次消耗一份，集群变慢时对冲不会成倍放大负载。
+ * 对冲请求由低级客户端轮询到下一个节点，preference使用随机的自定义值，使分片副本的选择与首次请求不同；
+ * 请求指定了以下划线开头的preference时保持不变，避免违反其中的节点或分片限制
+ * <p>
+ * 分位数只统计首次请求自身的耗时：对冲请求先返回时不取消首次请求，等它返回后再记录，
+ * 否则样本只剩两者中较快的一次，分位数越算越低，对冲也随之越来越多
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class SearchHedger implements Closeable {
+
+    /**
+     * 计算分位数使用的最近样本数
+     */
+    private static final int WINDOW = 1024;
+
+    /**
+     * 样本少于该数量时不对冲
+     */
+    private static final int MIN_SAMPLES = 100;
+
+    /**
+     * 预算额度的上限，限制空闲后的突发对冲
+     */
+    private static final double MAX_TOKENS = 10;
+
+    private final RestHighLevelClient client;
+    private final double percentile;
+    private final double budget;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    /**
+     * 当前的对冲延迟，负数表示不对冲
+     */
+    private volatile long delayNanos = -1;
+
+    private double tokens;
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+
+    /**
+     * @param fixedDelayNanos 固定的对冲延迟，0表示按分位数计算
+     * @param percentile      计算延迟使用的耗时分位数，如95
+     * @param budget          对冲请求占检索数的比例上限，如0.05
+     */
+    public SearchHedger(RestHighLevelClient client, long fixedDelayNanos, double percentile, double budget,
+                        EsMetrics metrics) {
+        this.client = client;
+        this.percentile = percentile;
+        this.budget = budget;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("es-search-hedger-%d").setDaemon(true).build());
+        if (fixedDelayNanos > 0) {
+            this.delayNanos = fixedDelayNanos;
+        } else {
+            scheduler.scheduleWithFixedDelay(this::updateDelay, 1, 1, TimeUnit.SECONDS);
+        }
+
+        metrics.counter("es.hedge.searches", "Searches eligible for hedging", searches::sum);
+        metrics.counter("es.hedge.sent", "Hedged duplicate searches sent", hedges::sum);
+        metrics.counter("es.hedge.wins", "Hedged searches that answered first", hedgeWins::sum);
+        metrics.counter("es.hedge.over.budget", "Hedges skipped because the budget was used up", overBudget::sum);
+        metrics.gauge("es.hedge.delay", "Current hedge delay in milliseconds, negative when not hedging",
+                () -> delayNanos < 0 ? -1 : delayNanos / 1e6);
+    }
+
+    /**
+     * 发出检索，超过对冲延迟未返回时再发出一次
+     *
+     * @return 先返回的响应，两次都失败时以最后的异常完成
+     */
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        searches.increment();
+        synchronized (this) {
+            tokens = Math.min(MAX_TOKENS, tokens + budget);
+        }
+
+        final Attempts attempts = new Attempts(System.nanoTime());
+        client.searchAsync(request, EsRequestOptions.of(client), attempts.listener(false));
+        final long delay = delayNanos;
+        if (delay >= 0 && !attempts.result.isDone()) {
+            final ScheduledFuture<?> timer = scheduler.schedule(() -> hedge(request, attempts), delay, TimeUnit.NANOSECONDS);
+            attempts.result.whenComplete((response, e) -> timer.cancel(false));
+        }
+        return attempts.result;
+    }
+
+    private void hedge(SearchRequest request, Attempts attempts) {
+        if (attempts.result.isDone()) {
+            return;
+        }
+        synchronized (this) {
+            if (tokens < 1) {
+                overBudget.increment();
+                return;
+            }
+            tokens -= 1;
+        }
+        // 首次请求已经失败时不再对冲，归还额度
+        if (attempts.outstanding.getAndUpdate(n -> n > 0 ? n + 1 : n) == 0) {
+            synchronized (this) {
+                tokens += 1;
+            }
+            return;
+        }
+
+        final SearchRequest hedged = new SearchRequest(request);
+        if (request.preference() == null || !request.preference().startsWith("_")) {
+            hedged.preference("hedge-" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        }
+        hedges.increment();
+        try {
+            attempts.hedge = client.searchAsync(hedged, EsRequestOptions.of(client), attempts.listener(true));
+            // 发出期间首次请求已经返回
+            if (attempts.result.isDone()) {
+                attempts.hedge.cancel();
+            }
+        } catch (RuntimeException e) {
+            log.error("es执行出错", e);
+            attempts.listener(true).onFailure(e);
+        }
+    }
+
+    /**
+     * 样本由IO线程写入、排期线程读取
+     */
+    private void record(long nanos) {
+        samples.set((int) (sampleCount.getAndIncrement() % WINDOW), nanos);
+    }
+
+    /**
+     * 按最近的样本更新对冲延迟
+     */
+    private void updateDelay() {
+        final int count = (int) Math.min(sampleCount.get(), WINDOW);
+        if (count < MIN_SAMPLES) {
+            delayNanos = -1;
+            return;
+        }
+        final long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        delayNanos = sorted[Math.min(count - 1, (int) Math.ceil(count * percentile / 100) - 1)];
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 一次检索的首次请求和对冲请求
+     */
+    private class Attempts {
+
+        private final long start;
+        private final CompletableFuture<SearchResponse> result = new CompletableFuture<>();
+
+        /**
+         * 尚未返回的请求数，为0后对冲不再发出
+         */
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+
+        private volatile Cancellable hedge;
+
+        private Attempts(long start) {
+            this.start = start;
+        }
+
+        private ActionListener<SearchResponse> listener(boolean hedged) {
+            return new ActionListener<SearchResponse>() {
+                @Override
+                public void onResponse(SearchResponse response) {
+                    outstanding.decrementAndGet();
+                    if (!hedged) {
+                        record(System.nanoTime() - start);
+                    }
+                    if (!result.complete(response)) {
+                        return;
+                    }
+                    if (hedged) {
+                        // 不取消首次请求，等它返回后记录其自身的耗时
+                        hedgeWins.increment();
+                    } else {
+                        cancel(hedge);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            };
+        }
+
+        private void cancel(Cancellable other) {
+            if (other != null) {
+                other.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.scott.elastic.api;
+
+import java.util.List;
+
+/**
+ * 分片导出的结果消费者，会被多个分片线程同时调用，实现需要保证线程安全
+ *
+ * @author zhaogd
+ */
+public interface SliceConsumer<T> {
+
+    /**
+     * 消费某个分片的一批映射结果
+     *
+     * @param sliceId 分片编号，从0开始
+     * @param rows    本批次映射之后的实体
+     * @throws Exception 异常信息，会终止整个导出
+     */
+    void accept(int sliceId, List<T> rows) throws Exception;
+}
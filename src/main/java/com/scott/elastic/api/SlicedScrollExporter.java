@@ -0,0 +1,150 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.http.EsRequestOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分片滚动导出，将查询拆成多个slice并行滚动，每个slice占用一个线程
+ *
+ * @author zhaogd
+ */
+@Slf4j
+class SlicedScrollExporter<T> {
+
+    private final RestHighLevelClient client;
+    private final QueryBuilder queryBuilder;
+    private final String[] sourceIncludes;
+    private final String[] sourceExcludes;
+    private final int slices;
+    private final int pageSize;
+    private final SearchHitMapper<T> mapper;
+    private final SliceConsumer<T> consumer;
+    private final String[] indices;
+
+    /**
+     * 任一分片失败后，其余分片在下一批次前停止
+     */
+    private final AtomicBoolean aborted = new AtomicBoolean();
+
+    SlicedScrollExporter(RestHighLevelClient client, QueryBuilder queryBuilder,
+                         String[] sourceIncludes, String[] sourceExcludes, int slices, int pageSize,
+                         SearchHitMapper<T> mapper, SliceConsumer<T> consumer, String... indices) {
+        this.client = client;
+        this.queryBuilder = queryBuilder;
+        this.sourceIncludes = sourceIncludes;
+        this.sourceExcludes = sourceExcludes;
+        this.slices = slices;
+        this.pageSize = pageSize;
+        this.mapper = mapper;
+        this.consumer = consumer;
+        this.indices = indices;
+    }
+
+    /**
+     * 在指定线程池上并行导出，阻塞到全部分片完成
+     *
+     * @return 导出总条数
+     */
+    long export(Executor executor) throws Exception {
+        List<CompletableFuture<Long>> futures = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            final int sliceId = i;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return exportSlice(sliceId);
+                } catch (Exception e) {
+                    aborted.set(true);
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        long total = 0;
+        Exception failure = null;
+        for (CompletableFuture<Long> future : futures) {
+            try {
+                total += future.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return total;
+    }
+
+    private long exportSlice(int sliceId) throws Exception {
+        SearchResponse searchResponse = client.search(buildRequest(sliceId), EsRequestOptions.of(client));
+        String scrollId = searchResponse.getScrollId();
+
+        long count = 0;
+        try {
+            while (!aborted.get()) {
+                final int hits = searchResponse.getHits().getHits().length;
+                if (hits == 0) {
+                    break;
+                }
+                consumer.accept(sliceId, EsRequests.mapHits(searchResponse, mapper));
+                count += hits;
+                if (hits < pageSize) {
+                    break;
+                }
+
+                searchResponse = client.scroll(EsRequests.scrollId(scrollId), EsRequestOptions.of(client));
+                scrollId = searchResponse.getScrollId();
+            }
+            log.info("Slice [{}/{}] exported {} docs", sliceId, slices, count);
+            return count;
+        } finally {
+            clearScroll(scrollId);
+        }
+    }
+
+    private SearchRequest buildRequest(int sliceId) {
+        SearchRequest searchRequest = new SearchRequest(indices);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder)
+                .size(pageSize)
+                .fetchSource(sourceIncludes, sourceExcludes)
+                .sort(SortBuilders.fieldSort("_doc"));
+
+        // 只有一个分片时es不接受slice参数
+        if (slices > 1) {
+            searchSourceBuilder.slice(new SliceBuilder(sliceId, slices));
+        }
+        searchRequest.source(searchSourceBuilder);
+        searchRequest.scroll(EsRequests.SCROLL_KEEP_ALIVE);
+        return searchRequest;
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            ClearScrollRequest request = new ClearScrollRequest();
+            request.addScrollId(scrollId);
+            client.clearScroll(request, EsRequestOptions.of(client));
+        } catch (Exception e) {
+            log.warn("Unable to clear scroll [{}]", scrollId, e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.http.EsRequestOptions;
+import lombok.Data;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * 通过低级客户端执行检索，逐个解析响应中的命中结果并立即交给映射器，不构建完整的{@link org.elasticsearch.action.search.SearchResponse}
+ * <p>
+ * 同一时刻只有一条命中结果以{@link SearchHit}形式存在，响应中的聚合、建议等其他部分被跳过。
+ * 低级客户端默认仍会先把响应体读入内存，这里省掉的是整页对象图
+ *
+ * @author zhaogd
+ */
+final class StreamingSearch {
+
+    private StreamingSearch() {
+    }
+
+    /**
+     * 一次检索或滚动的响应概要
+     */
+    @Data
+    static final class Page {
+        private Long totalCount;
+        private TotalHits.Relation relation;
+        private String scrollId;
+        private long took;
+        private int hits;
+    }
+
+    static <T> Page search(RestHighLevelClient client, SearchRequest searchRequest, SearchHitMapper<T> mapper,
+                           Consumer<? super T> consumer) throws Exception {
+        final Request request = new Request("POST", endpoint(searchRequest.indices()));
+        addParameters(request, searchRequest);
+        if (searchRequest.source() != null) {
+            request.setEntity(toEntity(searchRequest.source()));
+        }
+        return execute(client, request, mapper, consumer);
+    }
+
+    static <T> Page scroll(RestHighLevelClient client, String scrollId, TimeValue keepAlive, SearchHitMapper<T> mapper,
+                           Consumer<? super T> consumer) throws Exception {
+        final Request request = new Request("POST", "/_search/scroll");
+        request.setEntity(toEntity((builder, params) -> builder
+                .field("scroll", keepAlive.getStringRep())
+                .field("scroll_id", scrollId)));
+        return execute(client, request, mapper, consumer);
+    }
+
+    private static <T> Page execute(RestHighLevelClient client, Request request, SearchHitMapper<T> mapper,
+                                    Consumer<? super T> consumer) throws Exception {
+        request.setOptions(EsRequestOptions.of(client));
+        final Response response = client.getLowLevelClient().performRequest(request);
+        try (InputStream in = response.getEntity().getContent();
+             XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                     DeprecationHandler.THROW_UNSUPPORTED_OPERATION, in)) {
+            return parseResponse(parser, mapper, consumer);
+        }
+    }
+
+    private static <T> Page parseResponse(XContentParser parser, SearchHitMapper<T> mapper,
+                                          Consumer<? super T> consumer) throws Exception {
+        final Page page = new Page();
+        parser.nextToken();
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            final String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "_scroll_id":
+                    page.setScrollId(parser.text());
+                    break;
+                case "took":
+                    page.setTook(parser.longValue());
+                    break;
+                case "hits":
+                    parseHits(parser, page, mapper, consumer);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return page;
+    }
+
+    private static <T> void parseHits(XContentParser parser, Page page, SearchHitMapper<T> mapper,
+                                      Consumer<? super T> consumer) throws Exception {
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            final String field = parser.currentName();
+            final XContentParser.Token token = parser.nextToken();
+            if ("total".equals(field)) {
+                parseTotal(parser, token, page);
+            } else if ("hits".equals(field) && token == XContentParser.Token.START_ARRAY) {
+                int rowNum = 0;
+                while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+                    final SearchHit hit = SearchHit.fromXContent(parser);
+                    consumer.accept(mapper.mapRow(hit, rowNum++));
+                }
+                page.setHits(rowNum);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 总条数可能是对象，也可能是rest_total_hits_as_int时的数字
+     */
+    private static void parseTotal(XContentParser parser, XContentParser.Token token, Page page) throws IOException {
+        if (token == XContentParser.Token.VALUE_NUMBER) {
+            page.setTotalCount(parser.longValue());
+            page.setRelation(TotalHits.Relation.EQUAL_TO);
+            return;
+        }
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            final String field = parser.currentName();
+            parser.nextToken();
+            if ("value".equals(field)) {
+                page.setTotalCount(parser.longValue());
+            } else if ("relation".equals(field)) {
+                page.setRelation("gte".equals(parser.text())
+                        ? TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO : TotalHits.Relation.EQUAL_TO);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String endpoint(String[] indices) {
+        if (indices == null || indices.length == 0) {
+            return "/_search";
+        }
+        return "/" + String.join(",", indices) + "/_search";
+    }
+
+    /**
+     * 与高级客户端转换检索请求时的URL参数保持一致
+     */
+    private static void addParameters(Request request, SearchRequest searchRequest) {
+        if (searchRequest.routing() != null) {
+            request.addParameter("routing", searchRequest.routing());
+        }
+        if (searchRequest.preference() != null) {
+            request.addParameter("preference", searchRequest.preference());
+        }
+        if (searchRequest.searchType() != SearchType.DEFAULT) {
+            request.addParameter("search_type", searchRequest.searchType().name().toLowerCase(Locale.ROOT));
+        }
+        if (searchRequest.requestCache() != null) {
+            request.addParameter("request_cache", searchRequest.requestCache().toString());
+        }
+        if (searchRequest.allowPartialSearchResults() != null) {
+            request.addParameter("allow_partial_search_results", searchRequest.allowPartialSearchResults().toString());
+        }
+        if (searchRequest.scroll() != null) {
+            request.addParameter("scroll", searchRequest.scroll().keepAlive().getStringRep());
+        }
+
+        final IndicesOptions options = searchRequest.indicesOptions();
+        request.addParameter("ignore_unavailable", Boolean.toString(options.ignoreUnavailable()));
+        request.addParameter("allow_no_indices", Boolean.toString(options.allowNoIndices()));
+        request.addParameter("ignore_throttled", Boolean.toString(options.ignoreThrottled()));
+        final List<String> expandWildcards = new ArrayList<>(2);
+        if (options.expandWildcardsOpen()) {
+            expandWildcards.add("open");
+        }
+        if (options.expandWildcardsClosed()) {
+            expandWildcards.add("closed");
+        }
+        request.addParameter("expand_wildcards", expandWildcards.isEmpty() ? "none" : String.join(",", expandWildcards));
+    }
+
+    private static HttpEntity toEntity(ToXContent content) throws IOException {
+        final BytesReference bytes;
+        if (content.isFragment()) {
+            try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+                builder.startObject();
+                content.toXContent(builder, ToXContent.EMPTY_PARAMS);
+                bytes = BytesReference.bytes(builder.endObject());
+            }
+        } else {
+            bytes = XContentHelper.toXContent(content, XContentType.JSON, false);
+        }
+        return new ByteArrayEntity(BytesReference.toBytes(bytes), ContentType.APPLICATION_JSON);
+    }
+}
@@ -15,14 +15,15 @@
  */
 package com.scott.elastic.boot;
 
+import com.scott.elastic.bulk.BulkLimits;
 import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.http.EsRequestOptions;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BackoffPolicy;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
@@ -39,33 +40,56 @@ public class BulkProcessorBuilder {
 
 
     public static BulkProcessor build(final RestHighLevelClient client, final ElasticSearchConfig config) {
-        log.info("Bulk processor bulkActions: [{}], bulkSize: [{}], flush interval time: [{}]," +
-                        " concurrent Request: [{}], backoffPolicyTimeInterval: [{}], backoffPolicyRetries: [{}] ",
-                config.getBulkActions(), config.getBulkSize(), config.getFlushIntervalTime(),
-                config.getConcurrentRequests(), config.getExponentialBackoffPolicyInitialDelay(),
-                config.getExponentialBackoffPolicyRetries());
+        return build(client, config, getListener());
+    }
+
+    public static BulkProcessor build(final RestHighLevelClient client, final ElasticSearchConfig config,
+                                      final BulkProcessor.Listener listener) {
+        return build(client, config, BulkLimits.of(config), listener);
+    }
+
+    /**
+     * 按指定的批次大小与并行度构建，其余参数取自配置
+     */
+    public static BulkProcessor build(final RestHighLevelClient client, final ElasticSearchConfig config,
+                                      final BulkLimits limits, final BulkProcessor.Listener listener) {
+        log.info("Bulk processor backoffPolicyTimeInterval: [{}], backoffPolicyRetries: [{}] ",
+                config.getExponentialBackoffPolicyInitialDelay(), config.getExponentialBackoffPolicyRetries());
+        return build(client, config, limits, listener, BackoffPolicy.exponentialBackoff(
+                new TimeValue(config.getExponentialBackoffPolicyInitialDelay(),
+                        config.getExponentialBackoffPolicyInitialDelayUnit()),
+                config.getExponentialBackoffPolicyRetries()));
+    }
+
+    /**
+     * 按指定的批次大小、并行度与退避策略构建，其余参数取自配置
+     * <p>
+     * 退避策略会在一批的失败条目全部为429时只重发失败条目，并把各轮的条目响应拼接后交给监听器，
+     * 此时条目的{@link org.elasticsearch.action.bulk.BulkItemResponse#getItemId()}是所在轮次请求中的位置，
+     * 不再对应原批次的请求。按位置取回请求的监听器需使用{@link BackoffPolicy#noBackoff()}
+     */
+    public static BulkProcessor build(final RestHighLevelClient client, final ElasticSearchConfig config,
+                                      final BulkLimits limits, final BulkProcessor.Listener listener,
+                                      final BackoffPolicy backoffPolicy) {
+        log.info("Bulk processor bulkActions: [{}], bulkSize: [{}], flush interval time: [{}], concurrent Request: [{}]",
+                limits.getActions(), new ByteSizeValue(limits.getBytes()), config.getFlushIntervalTime(),
+                limits.getConcurrency());
 
         // 构建异步客户端
         BiConsumer<BulkRequest, ActionListener<BulkResponse>> bulkConsumer =
-                (request, bulkListener) -> client.bulkAsync(request, RequestOptions.DEFAULT, bulkListener);
+                (request, bulkListener) -> client.bulkAsync(request, EsRequestOptions.of(client), bulkListener);
 
         // 构建批量处理器
-        return BulkProcessor.builder(bulkConsumer, getListener())
-                .setBulkActions(config.getBulkActions())
-                .setBulkSize(new ByteSizeValue(config.getBulkSize(), config.getBulkSizeUnit()))
+        return BulkProcessor.builder(bulkConsumer, listener)
+                .setBulkActions(limits.getActions())
+                .setBulkSize(new ByteSizeValue(limits.getBytes()))
                 .setFlushInterval(new TimeValue(config.getFlushIntervalTime(), config.getFlushIntervalTimeUnit()))
-                .setConcurrentRequests(config.getConcurrentRequests())
-                .setBackoffPolicy(
-                        BackoffPolicy.exponentialBackoff(
-                                new TimeValue(config.getExponentialBackoffPolicyInitialDelay(),
-                                        config.getExponentialBackoffPolicyInitialDelayUnit()),
-                                config.getExponentialBackoffPolicyRetries()
-                        )
-                )
+                .setConcurrentRequests(limits.getConcurrency())
+                .setBackoffPolicy(backoffPolicy)
                 .build();
     }
 
-    private static BulkProcessor.Listener getListener() {
+    public static BulkProcessor.Listener getListener() {
         return new BulkProcessor.Listener() {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
@@ -1,22 +1,51 @@
 package com.scott.elastic.boot;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.scott.elastic.api.AsyncEsTemplate;
 import com.scott.elastic.api.EsTemplate;
+import com.scott.elastic.api.GetCoalescer;
+import com.scott.elastic.api.JsonSourceMapper;
+import com.scott.elastic.api.ReactiveEsTemplate;
+import com.scott.elastic.api.SearchBatcher;
+import com.scott.elastic.api.SearchHedger;
+import com.scott.elastic.bulk.BulkIngester;
+import com.scott.elastic.bulk.BulkLimits;
+import com.scott.elastic.bulk.DeadLetterSink;
+import com.scott.elastic.bulk.FileDeadLetterSink;
+import com.scott.elastic.cache.NearCache;
+import com.scott.elastic.cache.SearchResultCache;
 import com.scott.elastic.config.ElasticSearchConfig;
 import com.scott.elastic.constants.Constants;
+import com.scott.elastic.limit.ConcurrencyLimiter;
+import com.scott.elastic.log.SlowRequestLog;
+import com.scott.elastic.metrics.EsMetrics;
+import com.scott.elastic.metrics.MicrometerEsMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 /**
  * es自动配置类
@@ -27,9 +56,15 @@ import java.util.List;
 @Configuration
 @EnableConfigurationProperties(ElasticSearchConfig.class)
 @ConditionalOnClass(EsTemplate.class)
+@AutoConfigureAfter(name = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
 @Slf4j
 public class ElasticSearchAutoConfiguration {
 
+    /**
+     * starter创建的客户端的bean名称，starter内的组件只按此名称注入客户端，容器中其他来源的客户端不受影响
+     */
+    public static final String CLIENT_BEAN_NAME = "esRestHighLevelClient";
+
     private final ElasticSearchConfig config;
 
     public ElasticSearchAutoConfiguration(ElasticSearchConfig config) {
@@ -37,9 +72,13 @@ public class ElasticSearchAutoConfiguration {
     }
 
 
-    @Bean
-    @ConditionalOnMissingBean(EsTemplate.class)
-    public EsTemplate esTemplate() {
+    /**
+     * 客户端由容器关闭；需要starter使用自定义的客户端时，以{@link #CLIENT_BEAN_NAME}为名称定义bean
+     */
+    @Bean(name = CLIENT_BEAN_NAME, destroyMethod = "close")
+    @ConditionalOnMissingBean(name = CLIENT_BEAN_NAME)
+    public RestHighLevelClient esRestHighLevelClient(ObjectProvider<EsClientCustomizer> customizers,
+                                                   ObjectProvider<EsMetrics> metrics) {
         final String hostString = config.getHosts();
         Preconditions.checkNotNull(hostString,
                 "spring.data.es.hosts cannot be empty, please specify in configuration file");
@@ -48,8 +87,155 @@ public class ElasticSearchAutoConfiguration {
         Preconditions.checkArgument(ArrayUtils.isNotEmpty(hosts),
                 "spring.data.es.hosts cannot be empty, please specify in configuration file");
 
-        final RestHighLevelClient client = buildClient(hosts);
-        return new EsTemplate(client, BulkProcessorBuilder.build(client, config));
+        final List<HttpHost> httpHosts = getHttpHosts(hosts);
+        log.info("HostName: [{}] ", httpHosts);
+        return RestClientFactory.build(config, httpHosts.toArray(new HttpHost[]{}),
+                customizers.orderedStream().collect(Collectors.toList()), metrics.getIfAvailable(() -> EsMetrics.NOOP));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(EsTemplate.class)
+    public EsTemplate esTemplate(@Qualifier(CLIENT_BEAN_NAME) RestHighLevelClient client, DeadLetterSink deadLetterSink,
+                                 ObjectProvider<EsMetrics> metrics, ObjectProvider<ObjectMapper> objectMapper) {
+        final EsMetrics esMetrics = metrics.getIfAvailable(() -> EsMetrics.NOOP);
+        final EsTemplate esTemplate = new EsTemplate(client, new BulkIngester(client, config, deadLetterSink, esMetrics));
+        esTemplate.setCloseClient(false);
+        esTemplate.setCursorTiebreakerField(config.getCursorTiebreakerField());
+        esTemplate.setExportExecutor(Executors.newFixedThreadPool(config.getExportThreads(),
+                new ThreadFactoryBuilder().setNameFormat("es-export-%d").setDaemon(true).build()));
+        esTemplate.setMetrics(esMetrics);
+        objectMapper.ifAvailable(mapper -> esTemplate.setSourceMapper(new JsonSourceMapper(mapper)));
+        esTemplate.setSlowRequestLog(new SlowRequestLog(
+                config.getSlowRequestThresholdUnit().toMillis(config.getSlowRequestThreshold()),
+                config.getSlowRequestSampleRate(), config.isSlowRequestProfile(),
+                config.getSlowRequestProfileIntervalUnit().toMillis(config.getSlowRequestProfileInterval())));
+        if (config.isGetCoalesceEnabled()) {
+            esTemplate.setGetCoalescer(new GetCoalescer(client,
+                    config.getGetCoalesceWindowUnit().toNanos(config.getGetCoalesceWindow()),
+                    config.getGetCoalesceMaxBatchSize(), esMetrics));
+        }
+        if (config.isSearchBatchEnabled()) {
+            esTemplate.setSearchBatcher(new SearchBatcher(client,
+                    config.getSearchBatchWindowUnit().toNanos(config.getSearchBatchWindow()),
+                    config.getSearchBatchMaxSize(), esMetrics));
+        }
+        if (config.isSearchHedgeEnabled()) {
+            esTemplate.setSearchHedger(new SearchHedger(client,
+                    config.getSearchHedgeDelayUnit().toNanos(config.getSearchHedgeDelay()),
+                    config.getSearchHedgePercentile(), config.getSearchHedgeBudget(), esMetrics));
+        }
+        if (config.isConcurrencyLimitEnabled()) {
+            final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(config.getConcurrencyLimitInitial(),
+                    config.getConcurrencyLimitMin(), config.getConcurrencyLimitMax(),
+                    config.getConcurrencyLimitQueueTimeoutUnit().toNanos(config.getConcurrencyLimitQueueTimeout()));
+            concurrencyLimiter.bindTo(esMetrics);
+            esTemplate.setConcurrencyLimiter(concurrencyLimiter);
+        }
+        if (config.isSearchResultCacheEnabled()) {
+            final SearchResultCache searchResultCache = new SearchResultCache(config.getSearchResultCacheMaximumSize(),
+                    config.getSearchResultCacheExpireUnit().toMillis(config.getSearchResultCacheExpire()));
+            searchResultCache.bindTo(esMetrics);
+            esTemplate.setSearchResultCache(searchResultCache);
+        }
+        if (!config.getNearCacheIndices().isEmpty()) {
+            final NearCache nearCache = new NearCache(config.getNearCacheIndices(), config.getNearCacheMaximumSize(),
+                    config.getNearCacheExpireUnit().toMillis(config.getNearCacheExpire()));
+            nearCache.bindTo(esMetrics);
+            esTemplate.setNearCache(nearCache);
+        }
+        return esTemplate;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(DeadLetterSink.class)
+    public DeadLetterSink deadLetterSink() {
+        return new FileDeadLetterSink(config.getDeadLetterDir());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(AsyncEsTemplate.class)
+    public AsyncEsTemplate asyncEsTemplate(@Qualifier(CLIENT_BEAN_NAME) RestHighLevelClient client) {
+        final AsyncEsTemplate asyncEsTemplate = new AsyncEsTemplate(client);
+        asyncEsTemplate.setCursorTiebreakerField(config.getCursorTiebreakerField());
+        return asyncEsTemplate;
+    }
+
+
+    /**
+     * 引入Reactor时提供响应式模板，写请求流的批次大小、并行度和刷新间隔与批处理器的配置一致
+     */
+    @Configuration
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    static class ReactiveConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(ReactiveEsTemplate.class)
+        public ReactiveEsTemplate reactiveEsTemplate(@Qualifier(CLIENT_BEAN_NAME) RestHighLevelClient client,
+                                                     AsyncEsTemplate asyncEsTemplate, ElasticSearchConfig config) {
+            final ReactiveEsTemplate reactiveEsTemplate = new ReactiveEsTemplate(client, asyncEsTemplate,
+                    BulkLimits.of(config), config.getFlushIntervalTimeUnit().toNanos(config.getFlushIntervalTime()));
+            reactiveEsTemplate.setCursorTiebreakerField(config.getCursorTiebreakerField());
+            return reactiveEsTemplate;
+        }
+    }
+
+    /**
+     * 存在Micrometer时记录es操作指标
+     */
+    @Configuration
+    @ConditionalOnClass(MeterRegistry.class)
+    @ConditionalOnBean(MeterRegistry.class)
+    @ConditionalOnProperty(prefix = "spring.data.es", name = "metrics-enabled", matchIfMissing = true)
+    static class MetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(EsMetrics.class)
+        public EsMetrics esMetrics(MeterRegistry registry) {
+            return new MicrometerEsMetrics(registry);
+        }
+    }
+
+    /**
+     * 引入sniffer时定期从集群获取节点列表，请求失败后立即获取一次，集群扩缩容或滚动重启后无需修改配置
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.elasticsearch.client.sniff.Sniffer")
+    @ConditionalOnProperty(prefix = "spring.data.es", name = "sniffer-enabled")
+    static class SnifferConfiguration {
+
+        /**
+         * 客户端先于sniffer创建，创建前的请求失败不触发获取
+         */
+        private volatile Sniffer sniffer;
+
+        @Bean
+        public EsClientCustomizer sniffOnFailureCustomizer() {
+            return new EsClientCustomizer() {
+                @Override
+                public void customize(RestClientBuilder builder) {
+                    builder.setFailureListener(new RestClient.FailureListener() {
+                        @Override
+                        public void onFailure(Node node) {
+                            final Sniffer current = sniffer;
+                            if (current != null) {
+                                current.sniffOnFailure();
+                            }
+                        }
+                    });
+                }
+            };
+        }
+
+        @Bean(destroyMethod = "close")
+        @ConditionalOnMissingBean(Sniffer.class)
+        public Sniffer sniffer(@Qualifier(CLIENT_BEAN_NAME) RestHighLevelClient client, ElasticSearchConfig config) {
+            sniffer = Sniffer.builder(client.getLowLevelClient())
+                    .setSniffIntervalMillis(Math.toIntExact(config.getSnifferIntervalUnit().toMillis(config.getSnifferInterval())))
+                    .setSniffAfterFailureDelayMillis(Math.toIntExact(
+                            config.getSnifferAfterFailureDelayUnit().toMillis(config.getSnifferAfterFailureDelay())))
+                    .build();
+            return sniffer;
+        }
     }
 
 
@@ -64,11 +250,4 @@ public class ElasticSearchAutoConfiguration {
         return httpHosts;
     }
 
-    private RestHighLevelClient buildClient(String[] hosts) {
-        final List<HttpHost> httpHosts = getHttpHosts(hosts);
-        log.info("HostName: [{}] ", httpHosts);
-        return new RestHighLevelClient(RestClient.builder(httpHosts.toArray(new HttpHost[]{})));
-    }
-
-
 }
@@ -0,0 +1,51 @@
+package com.scott.elastic.boot;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.elasticsearch.client.RestClientBuilder;
+
+/**
+ * 自定义es客户端，在按配置设置连接池、IO线程和超时之后回调，可覆盖其中的设置
+ * <p>
+ * 连接池由starter创建后交给异步HTTP客户端，{@link HttpAsyncClientBuilder}上与连接相关的设置不会生效，
+ * 包括SSL上下文、SSL策略、主机名校验、连接数上限和IO反应器配置。
+ * SSL需通过{@link #customize(RegistryBuilder)}注册https的会话策略，连接数上限通过
+ * {@link #customize(PoolingNHttpClientConnectionManager)}修改
+ *
+ * @author zhaogd
+ */
+public interface EsClientCustomizer {
+
+    /**
+     * 自定义低级客户端构建器
+     */
+    default void customize(RestClientBuilder builder) {
+    }
+
+    /**
+     * 自定义连接池的会话策略，默认注册了http和使用系统SSL上下文的https，重新注册同名协议即可替换
+     */
+    default void customize(RegistryBuilder<SchemeIOSessionStrategy> registry) {
+    }
+
+    /**
+     * 自定义连接池，回调时已按配置设置连接数上限
+     */
+    default void customize(PoolingNHttpClientConnectionManager connectionManager) {
+    }
+
+    /**
+     * 自定义底层的异步HTTP客户端，连接相关的设置需通过连接池的回调修改
+     */
+    default void customize(HttpAsyncClientBuilder builder) {
+    }
+
+    /**
+     * 自定义默认的请求配置
+     */
+    default void customize(RequestConfig.Builder builder) {
+    }
+}
@@ -0,0 +1,206 @@
+package com.scott.elastic.boot;
+
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.http.EsRestHighLevelClient;
+import com.scott.elastic.http.HttpCompression;
+import com.scott.elastic.http.LatencyAwareNodeSelector;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import javax.net.ssl.SSLContext;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按配置构建es客户端：连接池大小、IO线程数、连接/读取/取连接超时、连接保持时间、gzip压缩和按延迟选择节点
+ * <p>
+ * 连接池由这里创建并交给异步HTTP客户端，以便读取租用、等待和空闲连接数，用于按实际负载调整连接池大小
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class RestClientFactory {
+
+    private RestClientFactory() {
+    }
+
+    public static RestHighLevelClient build(ElasticSearchConfig config, HttpHost[] hosts,
+                                            List<EsClientCustomizer> customizers, EsMetrics metrics) {
+        final PoolingNHttpClientConnectionManager connectionManager = connectionManager(config, customizers);
+        bindTo(connectionManager, metrics);
+
+        final HttpCompression compression = config.isCompressionEnabled()
+                ? new HttpCompression(config.getCompressionThresholdUnit().toBytes(config.getCompressionThreshold())) : null;
+        if (compression != null) {
+            compression.bindTo(metrics);
+        }
+
+        final LatencyAwareNodeSelector nodeSelector = config.isLatencyAwareRoutingEnabled()
+                ? new LatencyAwareNodeSelector(config.getLatencyAwareRoutingDecayUnit().toNanos(config.getLatencyAwareRoutingDecay()))
+                : null;
+
+        final long keepAliveMillis = config.getKeepAliveUnit().toMillis(config.getKeepAlive());
+        final RestClientBuilder builder = RestClient.builder(hosts)
+                .setHttpClientConfigCallback(httpClientBuilder -> {
+                    httpClientBuilder.setConnectionManager(connectionManager);
+                    if (keepAliveMillis > 0) {
+                        // 服务端未声明保持时间时原本会无限期复用，超过防火墙或负载均衡的空闲超时后连接被静默断开
+                        httpClientBuilder.setKeepAliveStrategy((response, context) -> {
+                            final long server = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                            return server > 0 ? Math.min(server, keepAliveMillis) : keepAliveMillis;
+                        });
+                    }
+                    customizers.forEach(customizer -> customizer.customize(httpClientBuilder));
+                    if (compression == null && nodeSelector == null) {
+                        return httpClientBuilder;
+                    }
+                    // 低级客户端只接受构建器，先构建出客户端再由构建器原样返回包装后的客户端
+                    CloseableHttpAsyncClient httpClient = httpClientBuilder.build();
+                    if (nodeSelector != null) {
+                        httpClient = nodeSelector.track(httpClient);
+                    }
+                    if (compression != null) {
+                        httpClient = compression.compressRequests(httpClient);
+                    }
+                    final CloseableHttpAsyncClient wrapped = httpClient;
+                    return new HttpAsyncClientBuilder() {
+                        @Override
+                        public CloseableHttpAsyncClient build() {
+                            return wrapped;
+                        }
+                    };
+                })
+                .setRequestConfigCallback(requestConfigBuilder -> {
+                    requestConfigBuilder
+                            .setConnectTimeout(Math.toIntExact(config.getConnectTimeoutUnit().toMillis(config.getConnectTimeout())))
+                            .setSocketTimeout(Math.toIntExact(config.getSocketTimeoutUnit().toMillis(config.getSocketTimeout())))
+                            .setConnectionRequestTimeout(Math.toIntExact(
+                                    config.getConnectionRequestTimeoutUnit().toMillis(config.getConnectionRequestTimeout())));
+                    customizers.forEach(customizer -> customizer.customize(requestConfigBuilder));
+                    return requestConfigBuilder;
+                });
+        if (nodeSelector != null) {
+            builder.setNodeSelector(nodeSelector);
+        }
+        customizers.forEach(customizer -> customizer.customize(builder));
+
+        log.info("Rest client maxConnTotal: [{}], maxConnPerRoute: [{}], ioThreadCount: [{}], connectTimeout: [{}ms], " +
+                        "socketTimeout: [{}ms], connectionRequestTimeout: [{}ms], keepAlive: [{}ms], compression: [{}], latencyAwareRouting: [{}]",
+                connectionManager.getMaxTotal(), connectionManager.getDefaultMaxPerRoute(), ioThreadCount(config),
+                config.getConnectTimeoutUnit().toMillis(config.getConnectTimeout()),
+                config.getSocketTimeoutUnit().toMillis(config.getSocketTimeout()),
+                config.getConnectionRequestTimeoutUnit().toMillis(config.getConnectionRequestTimeout()), keepAliveMillis,
+                config.isCompressionEnabled(), config.isLatencyAwareRoutingEnabled());
+        final RestHighLevelClient client = new EsRestHighLevelClient(builder,
+                compression != null ? compression.requestOptions() : RequestOptions.DEFAULT);
+
+        if (config.getWarmupConnections() > 0) {
+            warmUp(client.getLowLevelClient(), hosts, Math.min(config.getWarmupConnections(), connectionManager.getDefaultMaxPerRoute()),
+                    config.getConnectTimeoutUnit().toMillis(config.getConnectTimeout()));
+        }
+        return client;
+    }
+
+    /**
+     * 异步HTTP客户端使用外部连接池时忽略构建器上的SSL和连接数设置，这些设置只能在创建连接池时由自定义器修改
+     */
+    private static PoolingNHttpClientConnectionManager connectionManager(ElasticSearchConfig config,
+                                                                         List<EsClientCustomizer> customizers) {
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreadCount(config))
+                .setConnectTimeout(Math.toIntExact(config.getConnectTimeoutUnit().toMillis(config.getConnectTimeout())))
+                .setSoKeepAlive(true)
+                .build();
+        try {
+            // 默认与客户端一致使用系统的SSL上下文
+            final RegistryBuilder<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", new SSLIOSessionStrategy(SSLContext.getDefault(),
+                            SSLIOSessionStrategy.getDefaultHostnameVerifier()));
+            customizers.forEach(customizer -> customizer.customize(registry));
+
+            final PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(ioReactorConfig), registry.build());
+            connectionManager.setMaxTotal(config.getMaxConnTotal());
+            connectionManager.setDefaultMaxPerRoute(config.getMaxConnPerRoute());
+            customizers.forEach(customizer -> customizer.customize(connectionManager));
+            return connectionManager;
+        } catch (IOReactorException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to create es connection pool", e);
+        }
+    }
+
+    private static int ioThreadCount(ElasticSearchConfig config) {
+        return config.getIoThreadCount() > 0 ? config.getIoThreadCount() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * 登记连接池的租用、等待、空闲连接数和上限
+     */
+    private static void bindTo(PoolingNHttpClientConnectionManager connectionManager, EsMetrics metrics) {
+        metrics.gauge("es.http.pool.leased", "Connections currently leased to requests",
+                () -> connectionManager.getTotalStats().getLeased());
+        metrics.gauge("es.http.pool.pending", "Requests waiting for a connection",
+                () -> connectionManager.getTotalStats().getPending());
+        metrics.gauge("es.http.pool.available", "Idle connections kept alive in the pool",
+                () -> connectionManager.getTotalStats().getAvailable());
+        metrics.gauge("es.http.pool.max", "Maximum number of connections in the pool",
+                () -> connectionManager.getTotalStats().getMax());
+    }
+
+    /**
+     * 向每个节点并发发出请求，提前建立连接，避免启动后的第一批请求承担建连耗时，失败只记录日志
+     */
+    private static void warmUp(RestClient client, HttpHost[] hosts, int connections, long timeoutMillis) {
+        final CountDownLatch latch = new CountDownLatch(hosts.length * connections);
+        final AtomicInteger failed = new AtomicInteger();
+        final ResponseListener listener = new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                failed.incrementAndGet();
+                latch.countDown();
+            }
+        };
+
+        for (int i = 0; i < connections * hosts.length; i++) {
+            client.performRequestAsync(new Request("HEAD", "/"), listener);
+        }
+        try {
+            if (!latch.await(timeoutMillis * 2, TimeUnit.MILLISECONDS) || failed.get() > 0) {
+                log.warn("Es connection warm up incomplete, [{}] of [{}] requests failed or timed out",
+                        failed.get() + latch.getCount(), hosts.length * connections);
+            } else {
+                log.info("Warmed up [{}] connections to [{}] hosts", hosts.length * connections, hosts.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
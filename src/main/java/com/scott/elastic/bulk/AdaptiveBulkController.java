@@ -0,0 +1,161 @@
+package com.scott.elastic.bulk;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.function.Consumer;
+
+/**
+ * 批次大小与并行度的AIMD控制器
+ * <p>
+ * 按固定窗口汇总批次的took耗时和被拒绝条数：窗口内出现拒绝、整批失败或平均took超过目标时，
+ * 批次条数和并行度减半；否则批次条数按步长增加，批次条数已到上限后并行度加一。
+ * 批次字节数随批次条数等比例缩放
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class AdaptiveBulkController implements BulkProcessor.Listener {
+
+    private final int minActions;
+    private final int maxActions;
+    private final int actionsStep;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long targetTookMillis;
+    private final long intervalNanos;
+    private final double bytesPerAction;
+    private final Consumer<BulkLimits> onChange;
+
+    private volatile BulkLimits current;
+
+    /**
+     * 当前窗口的统计，由监听器线程并发更新，统一在锁内读写
+     */
+    private long windowStart = System.nanoTime();
+    private int bulks;
+    private long tookMillis;
+    private int rejected;
+    private int failedBulks;
+
+    /**
+     * @param initial          初始批次参数，字节数与条数的比例在调整中保持不变
+     * @param minActions       批次条数下限
+     * @param maxActions       批次条数上限
+     * @param actionsStep      健康时批次条数每次增加的步长
+     * @param minConcurrency   并行度下限
+     * @param maxConcurrency   并行度上限
+     * @param targetTookMillis 批次平均took的目标值
+     * @param intervalMillis   调整窗口
+     * @param onChange         批次参数变化时回调
+     */
+    public AdaptiveBulkController(BulkLimits initial, int minActions, int maxActions, int actionsStep,
+                                  int minConcurrency, int maxConcurrency, long targetTookMillis, long intervalMillis,
+                                  Consumer<BulkLimits> onChange) {
+        this.minActions = Math.max(1, minActions);
+        this.maxActions = Math.max(this.minActions, maxActions);
+        this.actionsStep = Math.max(1, actionsStep);
+        this.minConcurrency = Math.max(1, minConcurrency);
+        this.maxConcurrency = Math.max(this.minConcurrency, maxConcurrency);
+        this.targetTookMillis = targetTookMillis;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.bytesPerAction = (double) initial.getBytes() / Math.max(1, initial.getActions());
+        this.onChange = onChange;
+        this.current = limits(clamp(initial.getActions(), this.minActions, this.maxActions),
+                clamp(initial.getConcurrency(), this.minConcurrency, this.maxConcurrency));
+    }
+
+    public BulkLimits getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        int rejectedItems = 0;
+        if (response.hasFailures()) {
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejectedItems++;
+                }
+            }
+        }
+        record(response.getTook().millis(), rejectedItems, false);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        record(0, 0, true);
+    }
+
+    private void record(long took, int rejectedItems, boolean failed) {
+        final BulkLimits changed;
+        synchronized (this) {
+            bulks++;
+            tookMillis += took;
+            rejected += rejectedItems;
+            if (failed) {
+                failedBulks++;
+            }
+
+            final long now = System.nanoTime();
+            if (now - windowStart < intervalNanos) {
+                return;
+            }
+            changed = adjust();
+            windowStart = now;
+            bulks = 0;
+            tookMillis = 0;
+            rejected = 0;
+            failedBulks = 0;
+        }
+        if (changed != null) {
+            onChange.accept(changed);
+        }
+    }
+
+    /**
+     * 按窗口统计计算新的批次参数，未变化时返回空
+     */
+    private BulkLimits adjust() {
+        final BulkLimits limits = current;
+        final int succeededBulks = bulks - failedBulks;
+        final long avgTook = succeededBulks > 0 ? tookMillis / succeededBulks : 0;
+
+        int actions = limits.getActions();
+        int concurrency = limits.getConcurrency();
+        final boolean congested = rejected > 0 || failedBulks > 0 || avgTook > targetTookMillis;
+        if (congested) {
+            actions = Math.max(minActions, actions / 2);
+            concurrency = Math.max(minConcurrency, concurrency / 2);
+        } else if (actions < maxActions) {
+            actions = Math.min(maxActions, actions + actionsStep);
+        } else {
+            concurrency = Math.min(maxConcurrency, concurrency + 1);
+        }
+
+        if (actions == limits.getActions() && concurrency == limits.getConcurrency()) {
+            return null;
+        }
+        final BulkLimits next = limits(actions, concurrency);
+        log.info("Adjust bulk limits from [{}] to [{}], bulks: [{}], avg took: [{}]ms, rejected items: [{}], failed bulks: [{}]",
+                limits, next, bulks, avgTook, rejected, failedBulks);
+        current = next;
+        return next;
+    }
+
+    private BulkLimits limits(int actions, int concurrency) {
+        return new BulkLimits(actions, Math.max(1L, (long) (bytesPerAction * actions)), concurrency);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,24 @@
+package com.scott.elastic.bulk;
+
+/**
+ * 异步写入超出在途预算时的处理策略
+ *
+ * @author zhaogd
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * 阻塞等待预算释放，超时后抛出{@link BulkBackpressureException}
+     */
+    BLOCK,
+
+    /**
+     * 立即抛出{@link BulkBackpressureException}
+     */
+    FAIL,
+
+    /**
+     * 丢弃请求并计数
+     */
+    DROP
+}
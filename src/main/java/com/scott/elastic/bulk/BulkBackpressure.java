@@ -0,0 +1,196 @@
+package com.scott.elastic.bulk;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 异步写入的在途预算，统计已交给批处理器但尚未收到批次结果的请求条数和字节数
+ * <p>
+ * 请求放入批处理器前占用预算，所在批次完成或失败后释放。预算为空时总能放入一条，避免单条超大请求永远阻塞
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class BulkBackpressure implements BulkProcessor.Listener {
+
+    /**
+     * 与{@link BulkRequest}估算请求大小时使用的固定开销一致
+     */
+    private static final int REQUEST_OVERHEAD = 50;
+
+    private final long maxBytes;
+    private final long maxDocs;
+    private final BackpressurePolicy policy;
+    private final long timeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private volatile long bytes;
+    private volatile long docs;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param maxBytes      在途字节数上限
+     * @param maxDocs       在途条数上限
+     * @param policy        超出预算时的处理策略
+     * @param timeoutMillis 阻塞策略的最长等待时间
+     */
+    public BulkBackpressure(long maxBytes, long maxDocs, BackpressurePolicy policy, long timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.maxDocs = maxDocs;
+        this.policy = policy;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * 按策略占用预算
+     *
+     * @return 是否占用成功，丢弃策略下超出预算时返回false
+     * @throws BulkBackpressureException 阻塞超时或快速失败
+     */
+    public boolean acquire(DocWriteRequest<?> request) {
+        final long size = sizeOf(request);
+        lock.lock();
+        try {
+            if (fits(size)) {
+                take(size);
+                return true;
+            }
+            switch (policy) {
+                case DROP:
+                    dropped.incrementAndGet();
+                    log.debug("Drop request, index: [{}], id: [{}], in flight bytes: [{}], docs: [{}]",
+                            request.index(), request.id(), bytes, docs);
+                    return false;
+                case FAIL:
+                    throw exceeded();
+                default:
+                    long nanos = timeoutNanos;
+                    while (!fits(size)) {
+                        if (nanos <= 0) {
+                            throw exceeded();
+                        }
+                        nanos = released.awaitNanos(nanos);
+                    }
+                    take(size);
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkBackpressureException("Interrupted while waiting for bulk budget");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不受预算限制直接占用，用于失败条目的重新提交，这些请求之前已被接收过
+     */
+    public void forceAcquire(DocWriteRequest<?> request) {
+        final long size = sizeOf(request);
+        lock.lock();
+        try {
+            take(size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 释放单条请求占用的预算，请求未能放入批处理器时调用
+     */
+    public void release(DocWriteRequest<?> request) {
+        release(sizeOf(request), 1);
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        release(request);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        release(request);
+    }
+
+    private void release(BulkRequest request) {
+        long size = 0;
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            size += sizeOf(itemRequest);
+        }
+        release(size, request.numberOfActions());
+    }
+
+    private void release(long size, int count) {
+        lock.lock();
+        try {
+            bytes -= size;
+            docs -= count;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long size) {
+        if (docs == 0) {
+            return true;
+        }
+        return bytes + size <= maxBytes && docs + 1 <= maxDocs;
+    }
+
+    private void take(long size) {
+        bytes += size;
+        docs++;
+    }
+
+    private BulkBackpressureException exceeded() {
+        return new BulkBackpressureException("Bulk budget exceeded, in flight bytes: [" + bytes + "/" + maxBytes
+                + "], docs: [" + docs + "/" + maxDocs + "]");
+    }
+
+    public long getInFlightBytes() {
+        return bytes;
+    }
+
+    public long getInFlightDocs() {
+        return docs;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 估算请求大小，与{@link BulkRequest}的估算方式一致，占用和释放必须使用同一算法
+     */
+    static long sizeOf(DocWriteRequest<?> request) {
+        long size = REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest) {
+            size += sourceLength((IndexRequest) request);
+        } else if (request instanceof UpdateRequest) {
+            final UpdateRequest updateRequest = (UpdateRequest) request;
+            size += sourceLength(updateRequest.doc()) + sourceLength(updateRequest.upsertRequest());
+        }
+        return size;
+    }
+
+    private static long sourceLength(IndexRequest request) {
+        return request == null || request.source() == null ? 0 : request.source().length();
+    }
+}
@@ -0,0 +1,15 @@
+package com.scott.elastic.bulk;
+
+/**
+ * 异步写入超出在途预算且未能等到释放
+ *
+ * @author zhaogd
+ */
+public class BulkBackpressureException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BulkBackpressureException(String message) {
+        super(message);
+    }
+}
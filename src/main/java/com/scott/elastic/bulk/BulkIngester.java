@@ -0,0 +1,317 @@
+package com.scott.elastic.bulk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.scott.elastic.boot.BulkProcessorBuilder;
+import com.scott.elastic.config.ElasticSearchConfig;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步批量写入管道，在{@link BulkProcessor}之上叠加预写日志、单条失败重试、死信处理、在途预算和自适应批次调整
+ * <p>
+ * 可按索引名称或文档ID分为多个条带，每个条带是独立的{@link BulkProcessor}，各自攒批、定时刷新并控制并行度，
+ * 减少多线程写入时对单个批处理器内部锁的争用，也避免热点索引的批次拖慢其他索引的写入。
+ * 同一文档总是落在同一条带，写入顺序不受影响
+ * <p>
+ * {@link BulkProcessor}的批次大小与并行度在构建后不可修改，自适应模式下参数变化时
+ * 以新参数构建新的批处理器接替写入，旧批处理器在后台发送完剩余批次后关闭
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class BulkIngester {
+
+    private final RestHighLevelClient client;
+    private final ElasticSearchConfig config;
+    private final CompositeBulkListener listener;
+    private final BulkItemRetryHandler retryHandler;
+
+    /**
+     * 在途预算，未开启时为空
+     */
+    private final BulkBackpressure backpressure;
+
+    /**
+     * 预写日志，未开启时为空
+     */
+    private final BulkSpool spool;
+
+    /**
+     * 关闭被替换的旧批处理器，仅自适应模式下创建
+     */
+    private final ExecutorService retiring;
+
+    private final BulkStriping striping;
+
+    private volatile BulkLimits limits;
+
+    /**
+     * 各条带当前的批处理器，替换时整体更新
+     */
+    private volatile BulkProcessor[] processors;
+
+    public BulkIngester(RestHighLevelClient client, ElasticSearchConfig config, DeadLetterSink deadLetterSink) {
+        this(client, config, deadLetterSink, EsMetrics.NOOP);
+    }
+
+    public BulkIngester(RestHighLevelClient client, ElasticSearchConfig config, DeadLetterSink deadLetterSink,
+                        EsMetrics metrics) {
+        this.client = client;
+        this.config = config;
+        this.spool = config.isBulkSpoolEnabled() ? openSpool(config) : null;
+        if (spool != null) {
+            // 进入死信即为最终结果，确认后不再重放；临时失败不进入死信，请求留在预写日志中重试或重放
+            final DeadLetterSink sink = deadLetterSink;
+            deadLetterSink = (request, reason) -> {
+                sink.accept(request, reason);
+                spool.ack(request);
+            };
+        }
+        this.retryHandler = new BulkItemRetryHandler(config.getBulkItemRetries(),
+                config.getBulkItemRetryInitialDelayUnit().toMillis(config.getBulkItemRetryInitialDelay()),
+                config.getBulkItemRetryMaxDelayUnit().toMillis(config.getBulkItemRetryMaxDelay()),
+                deadLetterSink, this::resubmit, spool != null);
+
+        final List<BulkProcessor.Listener> listeners = new ArrayList<>();
+        listeners.add(BulkProcessorBuilder.getListener());
+        if (config.isBulkBackpressureEnabled()) {
+            this.backpressure = new BulkBackpressure(
+                    config.getBulkBackpressureMaxSizeUnit().toBytes(config.getBulkBackpressureMaxSize()),
+                    config.getBulkBackpressureMaxDocs(), config.getBulkBackpressurePolicy(),
+                    config.getBulkBackpressureTimeoutUnit().toMillis(config.getBulkBackpressureTimeout()));
+            listeners.add(backpressure);
+            metrics.gauge("es.bulk.inflight.bytes", "Estimated bytes accepted but not yet acknowledged", backpressure::getInFlightBytes);
+            metrics.gauge("es.bulk.inflight.docs", "Requests accepted but not yet acknowledged", backpressure::getInFlightDocs);
+            metrics.counter("es.bulk.dropped", "Requests dropped because the bulk budget was exceeded", backpressure::getDropped);
+        } else {
+            this.backpressure = null;
+        }
+        if (spool != null) {
+            listeners.add(spool);
+        }
+        listeners.add(retryHandler);
+
+        if (config.isBulkAdaptive()) {
+            final AdaptiveBulkController controller = new AdaptiveBulkController(BulkLimits.of(config),
+                    config.getBulkAdaptiveMinActions(), config.getBulkAdaptiveMaxActions(),
+                    config.getBulkAdaptiveActionsStep(), config.getBulkAdaptiveMinConcurrency(),
+                    config.getBulkAdaptiveMaxConcurrency(),
+                    config.getBulkAdaptiveTargetTookUnit().toMillis(config.getBulkAdaptiveTargetTook()),
+                    config.getBulkAdaptiveIntervalUnit().toMillis(config.getBulkAdaptiveInterval()),
+                    this::resize);
+            listeners.add(controller);
+            this.limits = controller.getCurrent();
+            this.retiring = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("es-bulk-retiring-%d").setDaemon(true).build());
+        } else {
+            this.limits = BulkLimits.of(config);
+            this.retiring = null;
+        }
+        this.listener = new CompositeBulkListener(listeners);
+        this.striping = config.getBulkStripeBy();
+        this.processors = buildProcessors(Math.max(1, config.getBulkStripes()), limits);
+        if (spool != null) {
+            try {
+                spool.replay(this::resubmit);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to replay bulk spool", e);
+            }
+        }
+
+        metrics.gauge("es.bulk.batch.actions", "Current number of actions per bulk request", () -> limits.getActions());
+        metrics.gauge("es.bulk.batch.bytes", "Current size in bytes per bulk request", () -> limits.getBytes());
+        metrics.gauge("es.bulk.concurrency", "Current number of concurrent bulk requests", () -> limits.getConcurrency());
+    }
+
+    /**
+     * 放入批处理器，开启在途预算时按配置的策略等待、失败或丢弃
+     *
+     * @throws BulkBackpressureException 超出在途预算
+     */
+    public void add(DocWriteRequest<?> request) {
+        if (backpressure != null && !backpressure.acquire(request)) {
+            return;
+        }
+        if (spool != null) {
+            try {
+                spool.append(request);
+            } catch (RuntimeException e) {
+                if (backpressure != null) {
+                    backpressure.release(request);
+                }
+                throw e;
+            }
+        }
+        try {
+            submit(request);
+        } catch (RuntimeException e) {
+            // 未被接收的请求由调用方处理，不再重放
+            if (spool != null) {
+                spool.ack(request);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 重新提交失败条目，不受在途预算限制，避免阻塞重试线程；提交失败时请求仍留在预写日志中
+     */
+    private void resubmit(DocWriteRequest<?> request) {
+        if (backpressure != null) {
+            backpressure.forceAcquire(request);
+        }
+        submit(request);
+    }
+
+    private void submit(DocWriteRequest<?> request) {
+        try {
+            final int stripe = stripeOf(request, processors.length);
+            while (true) {
+                final BulkProcessor current = processors[stripe];
+                try {
+                    current.add(request);
+                    return;
+                } catch (IllegalStateException e) {
+                    // 批处理器刚被替换并关闭时改写到新的批处理器
+                    if (current == processors[stripe]) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            if (backpressure != null) {
+                backpressure.release(request);
+            }
+            throw e;
+        }
+    }
+
+    private int stripeOf(DocWriteRequest<?> request, int stripes) {
+        if (stripes == 1) {
+            return 0;
+        }
+        final String key = striping == BulkStriping.INDEX ? request.index() : request.id();
+        // 自动生成ID的文档没有归属要求，按线程分散以减少争用
+        final int hash = key != null ? key.hashCode() : Long.hashCode(Thread.currentThread().getId());
+        return Math.floorMod(hash, stripes);
+    }
+
+    private BulkProcessor[] buildProcessors(int stripes, BulkLimits limits) {
+        final BulkProcessor[] built = new BulkProcessor[stripes];
+        for (int i = 0; i < stripes; i++) {
+            // 重试处理器和预写日志按位置取回请求，429只能由重试处理器逐条重试，批处理器不能再重发
+            built[i] = BulkProcessorBuilder.build(client, config, limits, listener, BackoffPolicy.noBackoff());
+        }
+        return built;
+    }
+
+    /**
+     * 追加批次监听器，在内置监听器之后回调
+     */
+    public void addListener(BulkProcessor.Listener listener) {
+        this.listener.add(listener);
+    }
+
+    /**
+     * 刷新所有条带
+     */
+    public void flush() {
+        for (BulkProcessor processor : processors) {
+            processor.flush();
+        }
+    }
+
+    public BulkLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * 以新的批次参数替换所有条带的批处理器
+     */
+    private synchronized void resize(BulkLimits next) {
+        if (retiring.isShutdown()) {
+            return;
+        }
+        final BulkProcessor[] previous = processors;
+        processors = buildProcessors(previous.length, next);
+        limits = next;
+        retiring.execute(() -> {
+            try {
+                awaitClose(previous, 5, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error(e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 先等待排期中的重试放回批处理器，再关闭所有条带并等待全部批次完成，最后关闭预写日志
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        retryHandler.awaitClose(timeout, unit);
+        try {
+            if (retiring == null) {
+                return awaitClose(processors, timeout, unit);
+            }
+
+            final BulkProcessor[] current;
+            synchronized (this) {
+                retiring.shutdown();
+                current = processors;
+            }
+            final boolean closed = awaitClose(current, timeout, unit);
+            return retiring.awaitTermination(timeout, unit) && closed;
+        } finally {
+            closeSpool();
+        }
+    }
+
+    private static BulkSpool openSpool(ElasticSearchConfig config) {
+        try {
+            return new BulkSpool(config.getBulkSpoolDir(),
+                    Math.toIntExact(config.getBulkSpoolSegmentSizeUnit().toBytes(config.getBulkSpoolSegmentSize())),
+                    config.isBulkSpoolForce());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open bulk spool", e);
+        }
+    }
+
+    private void closeSpool() {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 先关闭所有条带触发剩余批次发送，再在同一期限内逐个等待完成
+     */
+    private static boolean awaitClose(BulkProcessor[] processors, long timeout, TimeUnit unit) throws InterruptedException {
+        for (BulkProcessor processor : processors) {
+            processor.flush();
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean closed = true;
+        for (BulkProcessor processor : processors) {
+            final long remaining = Math.max(0, deadline - System.nanoTime());
+            closed &= processor.awaitClose(remaining, TimeUnit.NANOSECONDS);
+        }
+        return closed;
+    }
+}
@@ -0,0 +1,257 @@
+package com.scott.elastic.bulk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量写入的单条重试处理器
+ * <p>
+ * {@link BulkProcessor}自带的退避策略只在一批的失败条目全部为429时重发失败条目，
+ * 503、局部更新的版本冲突以及429与其他失败混在一起时都不重试。
+ * 这里从响应中挑出可重试的失败条目，按带抖动的指数退避重新放回批处理器；
+ * 连接失败、超时和整批返回的429/503时，批次中的每条请求同样按各自的重试次数逐条重试，
+ * 重试耗尽或不可重试的条目交给{@link DeadLetterSink}
+ * <p>
+ * 请求已写入预写日志时，整批的临时失败不计入重试次数，一直按退避上限重试，关闭时尚未完成的重试也不进入死信，
+ * 请求留在预写日志中下次启动后重放；只有条目的最终结果和不可重试的失败才进入死信
+ * <p>
+ * 条目响应按{@link BulkItemResponse#getItemId()}取回原批次中的请求，自带的退避策略重发后条目位置不再对应原批次，
+ * 因此批处理器需以{@link org.elasticsearch.action.bulk.BackoffPolicy#noBackoff()}构建，由这里统一负责重试
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class BulkItemRetryHandler implements BulkProcessor.Listener {
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final DeadLetterSink deadLetterSink;
+    private final Consumer<DocWriteRequest<?>> resubmitter;
+    private final boolean durable;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 正在重试的请求及已重试次数，请求未重写equals，按引用区分
+     */
+    private final Map<DocWriteRequest<?>, Integer> attempts = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * 已排期尚未重新提交的请求，关闭超时后转入死信，请求已持久化时留待重放
+     */
+    private final Set<DocWriteRequest<?>> pending = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+
+    /**
+     * @param maxRetries         单条最大重试次数，为0时失败条目直接进入死信
+     * @param initialDelayMillis 首次重试的退避时间
+     * @param maxDelayMillis     退避时间上限
+     * @param deadLetterSink     死信接收器
+     * @param resubmitter        重新提交请求，通常是放回批处理器
+     */
+    public BulkItemRetryHandler(int maxRetries, long initialDelayMillis, long maxDelayMillis,
+                                DeadLetterSink deadLetterSink, Consumer<DocWriteRequest<?>> resubmitter) {
+        this(maxRetries, initialDelayMillis, maxDelayMillis, deadLetterSink, resubmitter, false);
+    }
+
+    /**
+     * @param maxRetries         单条最大重试次数，为0时失败条目直接进入死信
+     * @param initialDelayMillis 首次重试的退避时间
+     * @param maxDelayMillis     退避时间上限
+     * @param deadLetterSink     死信接收器
+     * @param resubmitter        重新提交请求，通常是放回批处理器
+     * @param durable            请求是否已持久化，为true时临时失败和关闭时未完成的重试不进入死信，留待重放
+     */
+    public BulkItemRetryHandler(int maxRetries, long initialDelayMillis, long maxDelayMillis,
+                                DeadLetterSink deadLetterSink, Consumer<DocWriteRequest<?>> resubmitter,
+                                boolean durable) {
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = Math.max(initialDelayMillis, maxDelayMillis);
+        this.deadLetterSink = deadLetterSink;
+        this.resubmitter = resubmitter;
+        this.durable = durable;
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("es-bulk-retry-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        final List<DocWriteRequest<?>> requests = request.requests();
+        if (!response.hasFailures()) {
+            if (!attempts.isEmpty()) {
+                requests.forEach(attempts::remove);
+            }
+            return;
+        }
+
+        int retried = 0;
+        int deadLetters = 0;
+        for (BulkItemResponse item : response.getItems()) {
+            final DocWriteRequest<?> itemRequest = requests.get(item.getItemId());
+            if (!item.isFailed()) {
+                attempts.remove(itemRequest);
+                continue;
+            }
+
+            final BulkItemResponse.Failure failure = item.getFailure();
+            final int attempt = attempts.getOrDefault(itemRequest, 0);
+            if (attempt < maxRetries && isRetryable(itemRequest, failure)) {
+                attempts.put(itemRequest, attempt + 1);
+                scheduleRetry(itemRequest, attempt);
+                retried++;
+            } else {
+                deadLetter(itemRequest, failure.getStatus() + " " + failure.getMessage());
+                deadLetters++;
+            }
+        }
+        log.warn("Bulk [{}] item failures, retrying [{}], dead letters [{}]", executionId, retried, deadLetters);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        // 批处理器不再自行退避，连接失败、超时和整批的429/503与单条失败一样按各自的次数逐条重试，
+        // 请求已持久化时不限次数，没有条目结果前不进入死信
+        final String reason = "bulk failed: " + failure;
+        final boolean retryable = isRetryable(failure);
+        int retried = 0;
+        int deadLetters = 0;
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            final int attempt = attempts.getOrDefault(itemRequest, 0);
+            if (retryable && (durable || attempt < maxRetries)) {
+                attempts.put(itemRequest, attempt + 1);
+                scheduleRetry(itemRequest, attempt);
+                retried++;
+            } else {
+                deadLetter(itemRequest, reason);
+                deadLetters++;
+            }
+        }
+        log.warn("Bulk [{}] failed, retrying [{}], dead letters [{}]", executionId, retried, deadLetters, failure);
+    }
+
+    /**
+     * 集群繁忙或暂不可用时可重试；版本冲突仅对局部更新重试，重试时会基于最新文档重新合并
+     */
+    private static boolean isRetryable(DocWriteRequest<?> request, BulkItemResponse.Failure failure) {
+        final RestStatus status = failure.getStatus();
+        if (status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE) {
+            return true;
+        }
+        return status == RestStatus.CONFLICT && request instanceof UpdateRequest;
+    }
+
+    /**
+     * 整批失败时，连接失败、超时等IO异常以及集群返回的429/503可重试
+     */
+    private static boolean isRetryable(Throwable failure) {
+        if (failure instanceof ElasticsearchStatusException) {
+            final RestStatus status = ((ElasticsearchStatusException) failure).status();
+            return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleRetry(DocWriteRequest<?> request, int attempt) {
+        pending.add(request);
+        try {
+            scheduler.schedule(() -> resubmit(request), backoffMillis(attempt), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            abandon(request, "retry rejected after close");
+        }
+    }
+
+    private void resubmit(DocWriteRequest<?> request) {
+        if (!pending.remove(request)) {
+            return;
+        }
+        try {
+            resubmitter.accept(request);
+        } catch (Exception e) {
+            abandon(request, "resubmit failed: " + e);
+        }
+    }
+
+    /**
+     * 带抖动的指数退避，取上限的一半加上随机的另一半，避免大量失败条目在同一时刻重新涌入
+     */
+    long backoffMillis(int attempt) {
+        final long cap = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt, 30));
+        final long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+    }
+
+    private void deadLetter(DocWriteRequest<?> request, String reason) {
+        attempts.remove(request);
+        pending.remove(request);
+        deadLetterSink.accept(request, reason);
+    }
+
+    /**
+     * 关闭后无法完成的重试，请求已持久化时留待下次启动重放，否则进入死信
+     */
+    private void abandon(DocWriteRequest<?> request, String reason) {
+        if (!durable) {
+            deadLetter(request, reason);
+            return;
+        }
+        attempts.remove(request);
+        pending.remove(request);
+        log.debug("Bulk retry abandoned, the request will be replayed: {}", reason);
+    }
+
+    /**
+     * 等待已排期的重试提交完毕，之后产生的重试直接进入死信，请求已持久化时留待重放
+     */
+    public void awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(timeout, unit)) {
+            scheduler.shutdownNow();
+            final List<DocWriteRequest<?>> remaining;
+            synchronized (pending) {
+                remaining = new ArrayList<>(pending);
+            }
+            log.warn("Bulk item retries did not complete within {} {}, [{}] requests go to {}",
+                    timeout, unit, remaining.size(), durable ? "replay" : "dead letters");
+            for (DocWriteRequest<?> request : remaining) {
+                // 与正在执行的重试竞争，谁先移出谁负责处理
+                if (pending.remove(request)) {
+                    abandon(request, "retry pending at close");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.scott.elastic.bulk;
+
+import com.scott.elastic.config.ElasticSearchConfig;
+import lombok.Value;
+
+/**
+ * 批处理器的批次大小与并行度
+ *
+ * @author zhaogd
+ */
+@Value
+public class BulkLimits {
+
+    /**
+     * 每个批次条数
+     */
+    int actions;
+
+    /**
+     * 每个批次字节数
+     */
+    long bytes;
+
+    /**
+     * 并行发送的批次数
+     */
+    int concurrency;
+
+    public static BulkLimits of(ElasticSearchConfig config) {
+        return new BulkLimits(config.getBulkActions(),
+                config.getBulkSizeUnit().toBytes(config.getBulkSize()),
+                config.getConcurrentRequests());
+    }
+}
@@ -0,0 +1,331 @@
+package com.scott.elastic.bulk;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 异步写入的预写日志，请求放入批处理器前先追加到内存映射的段文件，收到确认后计数，段内请求全部确认后删除段文件
+ * <p>
+ * 确认指请求有了最终结果：写入成功或进入死信，连接失败、超时等临时失败不确认。启动时重放未删除的段文件，
+ * 因此进程崩溃或关闭超时时未确认的请求会在下次启动后重新写入，可能重复写入已成功的请求。
+ * 映射文件的内容在进程崩溃后仍由操作系统写回磁盘，操作系统崩溃则需开启每条强制刷盘
+ * <p>
+ * 段文件格式：魔数、写入时的es版本号，之后每条记录为长度、CRC32和请求的es序列化字节，长度为0表示结束
+ * <p>
+ * 条目响应按位置取回原批次中的请求，所在的批处理器不能使用自带的退避策略，否则重发后的条目位置不再对应原批次，
+ * 会确认错误的记录
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class BulkSpool implements BulkProcessor.Listener, Closeable {
+
+    private static final int MAGIC = 0x4553504C;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean force;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    /**
+     * 已追加未确认的请求及其所在段，请求未重写equals，按引用区分
+     */
+    private final Map<DocWriteRequest<?>, Segment> pending = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private long nextSegmentId;
+    private Segment active;
+
+    /**
+     * @param directory   段文件目录，每个进程需使用独立目录
+     * @param segmentSize 段文件大小，超过该大小的单条请求独占一个段
+     * @param force       是否每条记录都强制刷盘
+     */
+    public BulkSpool(String directory, int segmentSize, boolean force) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.force = force;
+
+        Files.createDirectories(this.directory);
+        this.lockChannel = FileChannel.open(this.directory.resolve("spool.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Bulk spool directory [" + this.directory.toAbsolutePath()
+                    + "] is used by another process");
+        }
+    }
+
+    /**
+     * 重放上次遗留的段文件，重放的请求仍记在原段上，全部确认后删除原段
+     *
+     * @param submitter 重新提交请求
+     */
+    public void replay(Consumer<DocWriteRequest<?>> submitter) throws IOException {
+        final List<Path> segments = listSegments();
+        for (Path path : segments) {
+            nextSegmentId = Math.max(nextSegmentId, segmentId(path) + 1);
+        }
+
+        for (Path path : segments) {
+            final List<DocWriteRequest<?>> requests = read(path);
+            final Segment segment = new Segment(path, null, null);
+            segment.appended = requests.size();
+            segment.sealed = true;
+            if (requests.isEmpty()) {
+                segment.delete();
+                continue;
+            }
+
+            log.info("Replay [{}] unacknowledged requests from [{}]", requests.size(), path);
+            for (DocWriteRequest<?> request : requests) {
+                pending.put(request, segment);
+            }
+            for (DocWriteRequest<?> request : requests) {
+                submitter.accept(request);
+            }
+        }
+    }
+
+    /**
+     * 追加一条请求
+     */
+    public void append(DocWriteRequest<?> request) {
+        final byte[] bytes = serialize(request);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        synchronized (this) {
+            final int recordSize = RECORD_HEADER_SIZE + bytes.length;
+            try {
+                // 末尾需留出结束标记的位置
+                if (active == null || active.buffer.remaining() < recordSize + 4) {
+                    roll(recordSize + 4);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create bulk spool segment", e);
+            }
+
+            final MappedByteBuffer buffer = active.buffer;
+            buffer.putInt(bytes.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(bytes);
+            if (force) {
+                buffer.force();
+            }
+            active.appended++;
+            pending.put(request, active);
+        }
+    }
+
+    /**
+     * 确认请求已有最终结果，所在段全部确认后删除
+     */
+    public void ack(DocWriteRequest<?> request) {
+        final Segment segment = pending.remove(request);
+        if (segment == null) {
+            return;
+        }
+        final int acked = segment.acked.incrementAndGet();
+        synchronized (this) {
+            if (segment.sealed && acked == segment.appended) {
+                segment.delete();
+            }
+        }
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        // 失败条目由重试处理器重新提交或交给死信，届时再确认；批处理器不自行重发，条目位置与原批次一致
+        final List<DocWriteRequest<?>> requests = request.requests();
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                ack(requests.get(item.getItemId()));
+            }
+        }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+    }
+
+    private void roll(int minSize) throws IOException {
+        if (active != null) {
+            active.seal();
+            if (active.acked.get() == active.appended) {
+                active.delete();
+            }
+        }
+
+        final Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(segmentSize, HEADER_SIZE + minSize));
+        buffer.putInt(MAGIC);
+        buffer.putInt(Version.CURRENT.id);
+        active = new Segment(path, channel, buffer);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentId(Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * 读取段内的全部完整记录，遇到结束标记、截断或校验失败的记录即停止
+     */
+    private static List<DocWriteRequest<?>> read(Path path) throws IOException {
+        final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                log.warn("Skip invalid bulk spool segment [{}]", path);
+                return requests;
+            }
+            final Version version = Version.fromId(buffer.getInt());
+
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int length = buffer.getInt();
+                final int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                final byte[] bytes = new byte[length];
+                buffer.get(bytes);
+
+                final CRC32 crc = new CRC32();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Bulk spool segment [{}] is corrupted after [{}] records", path, requests.size());
+                    break;
+                }
+                try (StreamInput in = StreamInput.wrap(bytes)) {
+                    in.setVersion(version);
+                    requests.add(DocWriteRequest.readDocumentRequest(in));
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static byte[] serialize(DocWriteRequest<?> request) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            DocWriteRequest.writeDocumentRequest(out, request);
+            return BytesReference.toBytes(out.bytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize bulk request", e);
+        }
+    }
+
+    /**
+     * 关闭当前段，未确认的段保留在磁盘上供下次启动重放
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            active.seal();
+            if (active.acked.get() == active.appended) {
+                active.delete();
+            }
+            active = null;
+        }
+        if (!pending.isEmpty()) {
+            log.warn("[{}] bulk requests are not acknowledged, they will be replayed from [{}] on next start",
+                    pending.size(), directory.toAbsolutePath());
+        }
+        lock.release();
+        lockChannel.close();
+    }
+
+    private static class Segment {
+
+        private final Path path;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+
+        private int appended;
+        private final AtomicInteger acked = new AtomicInteger();
+        private boolean sealed;
+        private boolean deleted;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private void seal() {
+            sealed = true;
+            if (buffer == null) {
+                return;
+            }
+            buffer.force();
+            buffer = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+            channel = null;
+        }
+
+        private void delete() {
+            if (deleted) {
+                return;
+            }
+            deleted = true;
+            try {
+                Files.deleteIfExists(path);
+                log.debug("Bulk spool segment [{}] acknowledged and deleted", path);
+            } catch (IOException e) {
+                log.error("Unable to delete bulk spool segment [{}]", path, e);
+            }
+        }
+    }
+}
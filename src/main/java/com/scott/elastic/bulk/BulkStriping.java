@@ -0,0 +1,19 @@
+package com.scott.elastic.bulk;
+
+/**
+ * 异步写入分条带的依据
+ *
+ * @author zhaogd
+ */
+public enum BulkStriping {
+
+    /**
+     * 按索引名称，同一索引的写入进入同一条带，热点索引不影响其他索引的攒批
+     */
+    INDEX,
+
+    /**
+     * 按文档ID，单索引多线程写入时也能分散到各条带
+     */
+    ID
+}
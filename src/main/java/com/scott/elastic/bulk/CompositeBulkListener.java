@@ -0,0 +1,55 @@
+package com.scott.elastic.bulk;
+
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按顺序回调多个批处理监听器，{@link BulkProcessor}只接受一个监听器，构建后仍可追加
+ *
+ * @author zhaogd
+ */
+public class CompositeBulkListener implements BulkProcessor.Listener {
+
+    private final List<BulkProcessor.Listener> listeners;
+
+    public CompositeBulkListener(BulkProcessor.Listener... listeners) {
+        this(Arrays.asList(listeners));
+    }
+
+    public CompositeBulkListener(List<BulkProcessor.Listener> listeners) {
+        this.listeners = new CopyOnWriteArrayList<>(listeners);
+    }
+
+    /**
+     * 追加一个监听器，此后开始的批次生效
+     */
+    public void add(BulkProcessor.Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+        for (BulkProcessor.Listener listener : listeners) {
+            listener.beforeBulk(executionId, request);
+        }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        for (BulkProcessor.Listener listener : listeners) {
+            listener.afterBulk(executionId, request, response);
+        }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        for (BulkProcessor.Listener listener : listeners) {
+            listener.afterBulk(executionId, request, failure);
+        }
+    }
+}
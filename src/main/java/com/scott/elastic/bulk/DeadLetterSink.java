@@ -0,0 +1,19 @@
+package com.scott.elastic.bulk;
+
+import org.elasticsearch.action.DocWriteRequest;
+
+/**
+ * 死信接收器，重试耗尽或不可重试的异步写入请求交由其保存，便于事后排查和补写
+ *
+ * @author zhaogd
+ */
+public interface DeadLetterSink {
+
+    /**
+     * 保存一条写入失败的请求，实现需保证线程安全，且不应抛出异常影响批处理监听器
+     *
+     * @param request 写入请求
+     * @param reason  失败原因
+     */
+    void accept(DocWriteRequest<?> request, String reason);
+}
@@ -0,0 +1,122 @@
+package com.scott.elastic.bulk;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 本地文件死信接收器，每条请求写为一行JSON，按天生成文件
+ * <p>
+ * 行内包含操作类型、索引、文档ID、失败原因和原始文档，可据此重新写入
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class FileDeadLetterSink implements DeadLetterSink, Closeable {
+
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final Path directory;
+
+    private LocalDate currentDate;
+    private Writer writer;
+
+    public FileDeadLetterSink(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    @Override
+    public synchronized void accept(DocWriteRequest<?> request, String reason) {
+        try {
+            final Writer out = writer();
+            out.write(toJson(request, reason));
+            out.write('\n');
+            out.flush();
+        } catch (Exception e) {
+            log.error("死信写入失败, index: [{}], id: [{}], reason: [{}]", request.index(), request.id(), reason, e);
+        }
+    }
+
+    private Writer writer() throws IOException {
+        final LocalDate today = LocalDate.now();
+        if (writer == null || !today.equals(currentDate)) {
+            closeWriter();
+            Files.createDirectories(directory);
+            final Path file = directory.resolve("dead-letter-" + FILE_DATE.format(today) + ".ndjson");
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            currentDate = today;
+            log.info("Dead letters will be written to [{}]", file.toAbsolutePath());
+        }
+        return writer;
+    }
+
+    private static String toJson(DocWriteRequest<?> request, String reason) throws IOException {
+        final XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
+                .field("time", System.currentTimeMillis())
+                .field("op", request.opType().getLowercase())
+                .field("index", request.index())
+                .field("id", request.id())
+                .field("routing", request.routing())
+                .field("reason", reason);
+
+        if (request instanceof IndexRequest) {
+            writeSource(builder, "source", (IndexRequest) request);
+        } else if (request instanceof UpdateRequest) {
+            final UpdateRequest updateRequest = (UpdateRequest) request;
+            builder.field("docAsUpsert", updateRequest.docAsUpsert());
+            if (updateRequest.doc() != null) {
+                writeSource(builder, "doc", updateRequest.doc());
+            }
+            if (updateRequest.upsertRequest() != null) {
+                writeSource(builder, "upsert", updateRequest.upsertRequest());
+            }
+            if (updateRequest.script() != null) {
+                builder.field("script", updateRequest.script().toString());
+            }
+        }
+        return Strings.toString(builder.endObject());
+    }
+
+    private static void writeSource(XContentBuilder builder, String name, IndexRequest request) throws IOException {
+        if (request.source() == null) {
+            return;
+        }
+        try (InputStream in = request.source().streamInput()) {
+            builder.rawField(name, in, request.getContentType());
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+        writer = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeWriter();
+    }
+}
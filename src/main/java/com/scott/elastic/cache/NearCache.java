@@ -0,0 +1,162 @@
+package com.scott.elastic.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.Value;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按文档缓存get、mget和ids的结果，只缓存指定的索引，按条数和写入后的存活时间淘汰
+ * <p>
+ * 同一模板写入文档时使缓存失效：同步写入在请求前后各失效一次，异步写入在放入缓冲池时和批次完成后各失效一次。
+ * 其他进程或模板的写入只能等待过期，ids走检索，刷新前读到的旧文档同样会保留到过期。
+ * 缓存的响应对象由多次调用共享，映射器不应修改其中的source
+ * <p>
+ * 每个文档对应一个条目，条目内按操作类型和返回字段区分结果。读取前先取得条目，失效时条目被移除，
+ * 因此与写入并发的读取即使拿到旧结果，也只会放入已移除的条目，不会覆盖失效
+ *
+ * @author zhaogd
+ */
+public class NearCache implements BulkProcessor.Listener {
+
+    /**
+     * 不缓存任何索引
+     */
+    public static final NearCache DISABLED = new NearCache(Collections.emptySet(), 0, 0);
+
+    private final Set<String> indices;
+    private final Cache<DocKey, Entry> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param indices      需要缓存的索引名称
+     * @param maximumSize  最多缓存的文档数
+     * @param expireMillis 写入缓存后的存活时间
+     */
+    public NearCache(Collection<String> indices, long maximumSize, long expireMillis) {
+        this.indices = Collections.unmodifiableSet(new HashSet<>(indices));
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 登记命中、未命中、淘汰次数和当前条目数
+     */
+    public void bindTo(EsMetrics metrics) {
+        metrics.counter("es.nearcache.hits", "Document lookups served from the near cache", hits::sum);
+        metrics.counter("es.nearcache.misses", "Document lookups sent to the cluster", misses::sum);
+        metrics.counter("es.nearcache.evictions", "Near cache entries evicted by size or expiry",
+                () -> cache.stats().evictionCount());
+        metrics.gauge("es.nearcache.size", "Documents held in the near cache", cache::size);
+    }
+
+    public boolean covers(String index) {
+        return index != null && indices.contains(index);
+    }
+
+    /**
+     * 取得文档的缓存条目，不存在时创建
+     */
+    public Entry entry(String index, String id) {
+        return cache.asMap().computeIfAbsent(new DocKey(index, id), key -> new Entry());
+    }
+
+    /**
+     * 区分同一文档不同操作和返回字段的结果
+     */
+    public static String variant(String operation, String[] sourceIncludes) {
+        return sourceIncludes == null ? operation : operation + Arrays.toString(sourceIncludes);
+    }
+
+    public void invalidate(String index, String id) {
+        if (covers(index) && id != null) {
+            cache.invalidate(new DocKey(index, id));
+        }
+    }
+
+    public void invalidate(DocWriteRequest<?> request) {
+        invalidate(request.index(), request.id());
+    }
+
+    public void invalidate(BulkRequest request) {
+        if (indices.isEmpty()) {
+            return;
+        }
+        for (DocWriteRequest<?> item : request.requests()) {
+            invalidate(item);
+        }
+    }
+
+    /**
+     * 使整个索引的缓存失效，用于无法确定文档的写入
+     */
+    public void invalidateAll(String index) {
+        if (covers(index)) {
+            cache.asMap().keySet().removeIf(key -> key.getIndex().equals(index));
+        }
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        invalidate(request);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        invalidate(request);
+    }
+
+    @Value
+    private static class DocKey {
+        String index;
+        String id;
+    }
+
+    /**
+     * 一个文档的缓存结果
+     */
+    public class Entry {
+
+        private final ConcurrentMap<String, Object> results = new ConcurrentHashMap<>(2);
+
+        /**
+         * @return 缓存的结果，未命中为空
+         */
+        public Object get(String variant) {
+            final Object result = results.get(variant);
+            if (result != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+            }
+            return result;
+        }
+
+        public void put(String variant, Object result) {
+            results.put(variant, result);
+        }
+    }
+}
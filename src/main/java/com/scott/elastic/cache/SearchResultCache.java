@@ -0,0 +1,112 @@
+package com.scott.elastic.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.scott.elastic.metrics.EsMetrics;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 缓存聚合类检索的响应，相同请求在存活时间内直接复用结果，并发的相同请求只向集群发出一次
+ * <p>
+ * 请求按排序后的索引名称、路由、偏好和检索体的JSON计算哈希作为键。缓存不随写入失效，结果最长滞后一个存活时间，
+ * 适合看板类的只读统计。缓存的响应由多次调用共享，映射器不应修改其中的内容
+ *
+ * @author zhaogd
+ */
+public class SearchResultCache {
+
+    private final Cache<String, CompletableFuture<SearchResponse>> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize  最多缓存的响应数
+     * @param expireMillis 请求发出后的存活时间
+     */
+    public SearchResultCache(long maximumSize, long expireMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 登记命中、未命中次数和当前条目数，等待进行中请求的调用也算作命中
+     */
+    public void bindTo(EsMetrics metrics) {
+        metrics.counter("es.searchcache.hits", "Searches served from the result cache or an in-flight call", hits::sum);
+        metrics.counter("es.searchcache.misses", "Searches sent to the cluster", misses::sum);
+        metrics.gauge("es.searchcache.size", "Responses held in the result cache", cache::size);
+    }
+
+    /**
+     * 取缓存的响应，不存在时由当前线程执行检索，其他相同请求等待该次结果，失败的结果不缓存
+     */
+    public SearchResponse get(SearchRequest request, Supplier<SearchResponse> search) {
+        final String key = key(request);
+        final CompletableFuture<SearchResponse> created = new CompletableFuture<>();
+        final CompletableFuture<SearchResponse> existing = cache.asMap().putIfAbsent(key, created);
+        if (existing != null) {
+            hits.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        misses.increment();
+        try {
+            final SearchResponse response = search.get();
+            created.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            cache.asMap().remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static String key(SearchRequest request) {
+        final String[] indices = request.indices().clone();
+        Arrays.sort(indices);
+
+        final Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(String.join(",", indices), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(String.valueOf(request.routing()), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(String.valueOf(request.preference()), StandardCharsets.UTF_8)
+                .putByte((byte) 0);
+        if (request.source() != null) {
+            try {
+                final BytesReference source = XContentHelper.toXContent(request.source(), XContentType.JSON, false);
+                hasher.putBytes(BytesReference.toBytes(source));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return hasher.hash().toString();
+    }
+}
@@ -1,9 +1,13 @@
 package com.scott.elastic.config;
 
+import com.scott.elastic.bulk.BackpressurePolicy;
+import com.scott.elastic.bulk.BulkStriping;
 import lombok.Data;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -20,6 +24,89 @@ public class ElasticSearchConfig {
      */
     private String hosts;
 
+    /**
+     * 连接池总连接数上限
+     */
+    private int maxConnTotal = 30;
+
+    /**
+     * 每个节点的连接数上限
+     */
+    private int maxConnPerRoute = 10;
+
+    /**
+     * IO线程数，0表示与处理器核数相同
+     */
+    private int ioThreadCount = 0;
+
+    /**
+     * 建立连接超时
+     */
+    private int connectTimeout = 1;
+    private TimeUnit connectTimeoutUnit = TimeUnit.SECONDS;
+
+    /**
+     * 读取响应超时，两个数据包之间的最长间隔
+     */
+    private int socketTimeout = 30;
+    private TimeUnit socketTimeoutUnit = TimeUnit.SECONDS;
+
+    /**
+     * 从连接池取连接的超时，负数表示不限制
+     */
+    private int connectionRequestTimeout = -1;
+    private TimeUnit connectionRequestTimeoutUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * 空闲连接的最长保持时间，服务端声明的时间更短时以服务端为准，负数表示只按服务端声明
+     */
+    private int keepAlive = -1;
+    private TimeUnit keepAliveUnit = TimeUnit.SECONDS;
+
+    /**
+     * 启动时向每个节点预先建立的连接数，不超过每个节点的连接数上限，0表示不预热
+     */
+    private int warmupConnections = 0;
+
+    /**
+     * 是否gzip压缩请求体并接受压缩的响应，适合带宽受限的链路，会增加客户端CPU开销
+     */
+    private boolean compressionEnabled = false;
+
+    /**
+     * 请求体超过该大小才压缩，过小的请求压缩收益抵不过CPU开销
+     */
+    private int compressionThreshold = 8;
+    private ByteSizeUnit compressionThresholdUnit = ByteSizeUnit.KB;
+
+    /**
+     * 是否按节点的响应耗时和进行中的请求数选择节点，只向得分较好的一半节点发送请求
+     */
+    private boolean latencyAwareRoutingEnabled = false;
+
+    /**
+     * 节点平均耗时的衰减时间，被排除的节点空闲一段时间后重新得到请求
+     */
+    private int latencyAwareRoutingDecay = 10;
+    private TimeUnit latencyAwareRoutingDecayUnit = TimeUnit.SECONDS;
+
+    /**
+     * 是否定期从集群获取节点列表，需要引入elasticsearch-rest-client-sniffer
+     */
+    private boolean snifferEnabled = false;
+
+    /**
+     * 获取节点列表的间隔
+     */
+    private int snifferInterval = 5;
+    private TimeUnit snifferIntervalUnit = TimeUnit.MINUTES;
+
+    /**
+     * 请求失败后立即获取一次节点列表，下一次获取的间隔
+     */
+    private int snifferAfterFailureDelay = 1;
+    private TimeUnit snifferAfterFailureDelayUnit = TimeUnit.MINUTES;
+
     /**
      * 写入每个批次条数
      */
@@ -43,7 +130,8 @@ public class ElasticSearchConfig {
     private int concurrentRequests = 1;
 
     /**
-     * 指数补偿策略初始时间阈值
+     * 指数补偿策略初始时间阈值，只用于直接通过BulkProcessorBuilder构建的批处理器，
+     * 异步写入管道的失败条目由单条重试处理器重试
      */
     private int exponentialBackoffPolicyInitialDelay = 50;
     private TimeUnit exponentialBackoffPolicyInitialDelayUnit = TimeUnit.MILLISECONDS;
@@ -52,4 +140,262 @@ public class ElasticSearchConfig {
      * 重试次数
      */
     private int exponentialBackoffPolicyRetries = 8;
+
+    /**
+     * 是否为异步写入开启预写日志，未确认的请求在下次启动时重放
+     */
+    private boolean bulkSpoolEnabled = false;
+
+    /**
+     * 预写日志目录，每个进程需使用独立目录
+     */
+    private String bulkSpoolDir = "es-bulk-spool";
+
+    /**
+     * 预写日志段文件大小
+     */
+    private int bulkSpoolSegmentSize = 64;
+    private ByteSizeUnit bulkSpoolSegmentSizeUnit = ByteSizeUnit.MB;
+
+    /**
+     * 是否每条记录都强制刷盘，关闭时可承受进程崩溃，开启后才能承受操作系统崩溃
+     */
+    private boolean bulkSpoolForce = false;
+
+    /**
+     * 异步写入的条带数，每个条带是独立的批处理器，批次条数、大小和并行度按条带分别计算
+     */
+    private int bulkStripes = 1;
+
+    /**
+     * 分条带的依据
+     */
+    private BulkStriping bulkStripeBy = BulkStriping.INDEX;
+
+    /**
+     * 是否按took耗时与拒绝情况自动调整批次条数和并行度，开启后bulkActions、bulkSize和concurrentRequests作为初始值
+     */
+    private boolean bulkAdaptive = false;
+
+    /**
+     * 自适应模式下批次条数的上下限及每次增加的步长
+     */
+    private int bulkAdaptiveMinActions = 500;
+    private int bulkAdaptiveMaxActions = 20000;
+    private int bulkAdaptiveActionsStep = 1000;
+
+    /**
+     * 自适应模式下并行度的上下限
+     */
+    private int bulkAdaptiveMinConcurrency = 1;
+    private int bulkAdaptiveMaxConcurrency = 4;
+
+    /**
+     * 自适应模式下批次平均took的目标值，超过即视为集群繁忙
+     */
+    private int bulkAdaptiveTargetTook = 1;
+    private TimeUnit bulkAdaptiveTargetTookUnit = TimeUnit.SECONDS;
+
+    /**
+     * 自适应模式的调整窗口
+     */
+    private int bulkAdaptiveInterval = 10;
+    private TimeUnit bulkAdaptiveIntervalUnit = TimeUnit.SECONDS;
+
+    /**
+     * 是否限制异步写入的在途预算，即已放入批处理器但尚未收到批次结果的请求
+     * <p>
+     * 预算应大于bulkActions、bulkSize乘以(concurrentRequests + 1)，否则写入方要等到定时刷新才能继续
+     */
+    private boolean bulkBackpressureEnabled = false;
+
+    /**
+     * 在途字节数上限
+     */
+    private int bulkBackpressureMaxSize = 64;
+    private ByteSizeUnit bulkBackpressureMaxSizeUnit = ByteSizeUnit.MB;
+
+    /**
+     * 在途条数上限
+     */
+    private int bulkBackpressureMaxDocs = 100000;
+
+    /**
+     * 超出在途预算时的处理策略
+     */
+    private BackpressurePolicy bulkBackpressurePolicy = BackpressurePolicy.BLOCK;
+
+    /**
+     * 阻塞策略的最长等待时间
+     */
+    private int bulkBackpressureTimeout = 30;
+    private TimeUnit bulkBackpressureTimeoutUnit = TimeUnit.SECONDS;
+
+    /**
+     * 异步写入单条失败或整批临时失败(连接失败、超时、429/503)时每条请求的最大重试次数，为0时失败条目直接进入死信；
+     * 开启预写日志时整批临时失败不限次数，关闭时未完成的重试留待下次启动重放
+     */
+    private int bulkItemRetries = 3;
+
+    /**
+     * 单条重试的初始退避时间，每次翻倍并加入随机抖动
+     */
+    private int bulkItemRetryInitialDelay = 200;
+    private TimeUnit bulkItemRetryInitialDelayUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * 单条重试的退避时间上限
+     */
+    private int bulkItemRetryMaxDelay = 10;
+    private TimeUnit bulkItemRetryMaxDelayUnit = TimeUnit.SECONDS;
+
+    /**
+     * 默认死信文件目录
+     */
+    private String deadLetterDir = "es-dead-letter";
+
+    /**
+     * 游标翻页追加在排序末尾的兜底字段，应为开启doc_values的唯一keyword字段；
+     * 为空时不追加，调用方的排序需要以唯一字段结尾
+     */
+    private String cursorTiebreakerField;
+
+    /**
+     * 分片导出线程数
+     */
+    private int exportThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 慢请求阈值，超过时以WARN级别输出请求体
+     */
+    private int slowRequestThreshold = 1;
+    private TimeUnit slowRequestThresholdUnit = TimeUnit.SECONDS;
+
+    /**
+     * 未超过阈值的请求按该比例采样，以INFO级别输出请求体，0到1之间
+     */
+    private double slowRequestSampleRate = 0;
+
+    /**
+     * 是否对慢检索带上profile重新执行一次，输出各分片的耗时明细
+     */
+    private boolean slowRequestProfile = false;
+
+    /**
+     * 两次剖析的最小间隔
+     */
+    private int slowRequestProfileInterval = 60;
+    private TimeUnit slowRequestProfileIntervalUnit = TimeUnit.SECONDS;
+
+    /**
+     * 是否将并发的单文档get合并为mget
+     */
+    private boolean getCoalesceEnabled = false;
+
+    /**
+     * get合并的等待窗口，从批次的第一个请求开始计时
+     */
+    private int getCoalesceWindow = 2;
+    private TimeUnit getCoalesceWindowUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * 每次mget最多合并的文档数，攒满立即发出
+     */
+    private int getCoalesceMaxBatchSize = 100;
+
+    /**
+     * 是否将不同线程并发的search合并为msearch
+     */
+    private boolean searchBatchEnabled = false;
+
+    /**
+     * search合并的等待窗口，从批次的第一个请求开始计时
+     */
+    private int searchBatchWindow = 2;
+    private TimeUnit searchBatchWindowUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * 每次msearch最多合并的检索数，攒满立即发出
+     */
+    private int searchBatchMaxSize = 20;
+
+    /**
+     * 是否对冲检索：超过延迟仍未返回时再发出一次，采用先返回的结果，同时开启合并检索时优先对冲
+     */
+    private boolean searchHedgeEnabled = false;
+
+    /**
+     * 固定的对冲延迟，0表示取最近检索耗时的分位数
+     */
+    private int searchHedgeDelay = 0;
+    private TimeUnit searchHedgeDelayUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * 计算对冲延迟使用的耗时分位数
+     */
+    private double searchHedgePercentile = 95;
+
+    /**
+     * 对冲请求占检索数的比例上限
+     */
+    private double searchHedgeBudget = 0.05;
+
+    /**
+     * 是否按读、写、聚合分别限制同步调用的并发数，上限随耗时自适应调整，超出上限的调用短暂排队后被拒绝
+     */
+    private boolean concurrencyLimitEnabled = false;
+
+    /**
+     * 各类别的初始并发上限
+     */
+    private int concurrencyLimitInitial = 20;
+
+    /**
+     * 并发上限的调整范围
+     */
+    private int concurrencyLimitMin = 4;
+    private int concurrencyLimitMax = 200;
+
+    /**
+     * 超出上限的调用的最长排队时间，0表示立即拒绝
+     */
+    private int concurrencyLimitQueueTimeout = 50;
+    private TimeUnit concurrencyLimitQueueTimeoutUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * 是否缓存聚合类检索的结果，并发的相同请求只发出一次
+     */
+    private boolean searchResultCacheEnabled = false;
+
+    /**
+     * 聚合结果缓存最多缓存的响应数
+     */
+    private long searchResultCacheMaximumSize = 1000;
+
+    /**
+     * 聚合结果缓存的存活时间，即结果最长的滞后时间
+     */
+    private int searchResultCacheExpire = 10;
+    private TimeUnit searchResultCacheExpireUnit = TimeUnit.SECONDS;
+
+    /**
+     * 开启近端缓存的索引，get、mget和ids的结果缓存在本地，为空时不缓存
+     */
+    private List<String> nearCacheIndices = new ArrayList<>();
+
+    /**
+     * 近端缓存最多缓存的文档数
+     */
+    private long nearCacheMaximumSize = 10000;
+
+    /**
+     * 近端缓存的存活时间，其他进程写入的文档最长在该时间后可见
+     */
+    private int nearCacheExpire = 60;
+    private TimeUnit nearCacheExpireUnit = TimeUnit.SECONDS;
+
+    /**
+     * 是否记录Micrometer指标，需要容器中存在MeterRegistry
+     */
+    private boolean metricsEnabled = true;
 }
@@ -27,4 +27,9 @@ public class ElasticsearchPageRequest {
     @Range(min = 1, max = 200, message = "pageSize需要在1和200之间")
     private Integer pageSize = 10;
 
+    /**
+     * 上一页返回的游标，按search_after翻页时使用，此时忽略pageNo
+     */
+    private String cursor;
+
 }
@@ -29,6 +29,11 @@ public class ElasticsearchPageResult<T> {
      */
     private String scrollId;
 
+    /**
+     * 游标，按search_after翻页时传入下一页请求，为空表示没有下一页
+     */
+    private String cursor;
+
     /**
      * 结果数据
      */
@@ -15,4 +15,9 @@ public class IndexDoc {
 
     private String id;
     private String jsonString;
+
+    /**
+     * UTF-8编码的json，设置后优先于jsonString，原样放入请求体，交出后不应再修改
+     */
+    private byte[] source;
 }
@@ -0,0 +1,26 @@
+package com.scott.elastic.dto;
+
+import lombok.Data;
+
+/**
+ * 多重检索中一个检索的结果，失败时结果为空
+ *
+ * @author zhaogd
+ */
+@Data
+public class MultiSearchResult<T> {
+
+    /**
+     * 映射后的结果
+     */
+    private T result;
+
+    /**
+     * 检索或映射失败的原因，成功为空
+     */
+    private Exception failure;
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+}
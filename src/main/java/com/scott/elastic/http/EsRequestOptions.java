@@ -0,0 +1,23 @@
+package com.scott.elastic.http;
+
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+
+/**
+ * 模板、批处理器等内部调用客户端时使用的请求选项，随客户端实例确定：
+ * {@link EsRestHighLevelClient}使用构建时按配置生成的选项(如响应压缩)，其他客户端使用{@link RequestOptions#DEFAULT}
+ * <p>
+ * 同一进程中的多个客户端各自使用自己的选项，互不影响
+ *
+ * @author zhaogd
+ */
+public final class EsRequestOptions {
+
+    private EsRequestOptions() {
+    }
+
+    public static RequestOptions of(RestHighLevelClient client) {
+        return client instanceof EsRestHighLevelClient
+                ? ((EsRestHighLevelClient) client).getRequestOptions() : RequestOptions.DEFAULT;
+    }
+}
@@ -0,0 +1,24 @@
+package com.scott.elastic.http;
+
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+
+/**
+ * 携带默认请求选项的客户端，starter内部的调用通过{@link EsRequestOptions#of(RestHighLevelClient)}取得这些选项
+ *
+ * @author zhaogd
+ */
+public class EsRestHighLevelClient extends RestHighLevelClient {
+
+    private final RequestOptions requestOptions;
+
+    public EsRestHighLevelClient(RestClientBuilder builder, RequestOptions requestOptions) {
+        super(builder);
+        this.requestOptions = requestOptions;
+    }
+
+    public RequestOptions getRequestOptions() {
+        return requestOptions;
+    }
+}
@@ -0,0 +1,47 @@
+package com.scott.elastic.http;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * 包装低级客户端使用的异步HTTP客户端，子类在请求发出前后加入处理
+ * <p>
+ * 低级客户端只通过构建器获得HTTP客户端，包装后的客户端由构建器原样返回
+ *
+ * @author zhaogd
+ */
+abstract class ForwardingHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    protected final CloseableHttpAsyncClient delegate;
+
+    ForwardingHttpAsyncClient(CloseableHttpAsyncClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context, FutureCallback<T> callback) {
+        return delegate.execute(requestProducer, responseConsumer, context, callback);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
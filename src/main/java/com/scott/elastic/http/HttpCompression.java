@@ -0,0 +1,217 @@
+package com.scott.elastic.http;
+
+import com.scott.elastic.metrics.EsMetrics;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.HeapBufferedAsyncResponseConsumer;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.RequestOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip压缩请求体与响应体，用于带宽受限的跨机房链路
+ * <p>
+ * 请求体由包装后的HTTP客户端压缩，超过阈值且长度已知的请求体才压缩，对所有请求生效。
+ * 响应只有使用{@link #requestOptions()}发出的请求才声明接受gzip，并在读取完成后解压，
+ * 其他请求选项不受影响，避免自行调用客户端的代码收到无法解析的压缩响应
+ *
+ * @author zhaogd
+ */
+public class HttpCompression {
+
+    private static final String GZIP = "gzip";
+
+    /**
+     * 与客户端默认的响应缓冲上限一致，按压缩后的大小计算
+     */
+    private static final int BUFFER_LIMIT = 100 * 1024 * 1024;
+
+    private final long threshold;
+
+    private final LongAdder requestRawBytes = new LongAdder();
+    private final LongAdder requestCompressedBytes = new LongAdder();
+    private final LongAdder responseRawBytes = new LongAdder();
+    private final LongAdder responseCompressedBytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * @param threshold 请求体压缩阈值，字节
+     */
+    public HttpCompression(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 登记压缩前后的字节数、压缩率和压缩解压耗费的CPU时间
+     */
+    public void bindTo(EsMetrics metrics) {
+        metrics.counter("es.http.compression.request.raw.bytes", "Request body bytes before compression", requestRawBytes::sum);
+        metrics.counter("es.http.compression.request.compressed.bytes", "Request body bytes sent compressed", requestCompressedBytes::sum);
+        metrics.counter("es.http.compression.response.raw.bytes", "Response body bytes after decompression", responseRawBytes::sum);
+        metrics.counter("es.http.compression.response.compressed.bytes", "Response body bytes received compressed", responseCompressedBytes::sum);
+        metrics.counter("es.http.compression.cpu.nanos", "Time spent compressing requests and decompressing responses", nanos::sum);
+        metrics.gauge("es.http.compression.request.ratio", "Compressed to raw size of compressed request bodies",
+                () -> ratio(requestCompressedBytes.sum(), requestRawBytes.sum()));
+        metrics.gauge("es.http.compression.response.ratio", "Compressed to raw size of compressed response bodies",
+                () -> ratio(responseCompressedBytes.sum(), responseRawBytes.sum()));
+    }
+
+    private static double ratio(long compressed, long raw) {
+        return raw == 0 ? 1.0 : (double) compressed / raw;
+    }
+
+    /**
+     * 包装异步HTTP客户端，发出请求前压缩请求体
+     * <p>
+     * 低级客户端在交给HTTP客户端前就已固定请求体的生产者，拦截器中替换请求体不会改变实际发出的内容，
+     * 因此在这里复制请求并换上压缩后的请求体，原请求保持不变，重试其他节点时重新压缩
+     */
+    public CloseableHttpAsyncClient compressRequests(CloseableHttpAsyncClient client) {
+        return new CompressingHttpAsyncClient(client);
+    }
+
+    private HttpAsyncRequestProducer compress(HttpAsyncRequestProducer producer) throws IOException, HttpException {
+        final HttpRequest request = producer.generateRequest();
+        if (!(request instanceof HttpEntityEnclosingRequestBase)) {
+            return producer;
+        }
+        final HttpEntity entity = ((HttpEntityEnclosingRequestBase) request).getEntity();
+        if (entity == null || entity.getContentLength() < threshold || entity.getContentEncoding() != null
+                || request.containsHeader(HttpHeaders.CONTENT_ENCODING)) {
+            return producer;
+        }
+
+        final long start = System.nanoTime();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, entity.getContentLength() / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            entity.writeTo(gzip);
+        }
+        final NByteArrayEntity compressed = new NByteArrayEntity(out.toByteArray(), ContentType.get(entity));
+        compressed.setContentEncoding(GZIP);
+        final CompressedRequest copy = new CompressedRequest((HttpEntityEnclosingRequestBase) request, compressed);
+        nanos.add(System.nanoTime() - start);
+        requestRawBytes.add(entity.getContentLength());
+        requestCompressedBytes.add(compressed.getContentLength());
+
+        producer.close();
+        return HttpAsyncMethods.create(producer.getTarget(), copy);
+    }
+
+    /**
+     * 与原请求相同的方法、地址、头部和配置，换上压缩后的请求体。请求体不支持克隆，不能直接复制原请求
+     */
+    private static class CompressedRequest extends HttpEntityEnclosingRequestBase {
+
+        private final HttpEntityEnclosingRequestBase original;
+        private final String method;
+
+        private CompressedRequest(HttpEntityEnclosingRequestBase original, HttpEntity entity) {
+            this.original = original;
+            this.method = original.getMethod();
+            setURI(original.getURI());
+            setHeaders(original.getAllHeaders());
+            setConfig(original.getConfig());
+            setEntity(entity);
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * HTTP客户端把取消操作登记在实际发出的请求上，同步登记到原请求，使低级客户端的取消仍然生效
+         */
+        @Override
+        public void setCancellable(Cancellable cancellable) {
+            super.setCancellable(cancellable);
+            original.setCancellable(cancellable);
+        }
+    }
+
+    private class CompressingHttpAsyncClient extends ForwardingHttpAsyncClient {
+
+        private CompressingHttpAsyncClient(CloseableHttpAsyncClient delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                     HttpContext context, FutureCallback<T> callback) {
+            final HttpAsyncRequestProducer producer;
+            try {
+                producer = compress(requestProducer);
+            } catch (IOException | HttpException e) {
+                final BasicFuture<T> future = new BasicFuture<>(callback);
+                future.failed(e);
+                return future;
+            }
+            return delegate.execute(producer, responseConsumer, context, callback);
+        }
+    }
+
+    /**
+     * 声明接受gzip响应并在读取完成后解压的请求选项
+     */
+    public RequestOptions requestOptions() {
+        final RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder()
+                .addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        builder.setHttpAsyncResponseConsumerFactory(new GzipResponseConsumerFactory());
+        return builder.build();
+    }
+
+    private class GzipResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+
+        @Override
+        public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+            return new HeapBufferedAsyncResponseConsumer(BUFFER_LIMIT) {
+                @Override
+                protected HttpResponse buildResult(HttpContext context) throws Exception {
+                    final HttpResponse response = super.buildResult(context);
+                    decompress(response);
+                    return response;
+                }
+            };
+        }
+    }
+
+    private void decompress(HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        final Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        if (entity == null || encoding == null || !GZIP.equalsIgnoreCase(encoding.getValue())) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long compressedLength = entity.getContentLength();
+        final byte[] raw = EntityUtils.toByteArray(new GzipDecompressingEntity(entity));
+        response.setEntity(new ByteArrayEntity(raw, ContentType.get(entity)));
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        nanos.add(System.nanoTime() - start);
+        responseRawBytes.add(raw.length);
+        responseCompressedBytes.add(compressedLength);
+    }
+}
@@ -0,0 +1,177 @@
+package com.scott.elastic.http;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按延迟选择节点：记录每个节点响应耗时的指数移动平均和进行中的请求数，每次请求只保留得分较好的一半节点
+ * <p>
+ * 得分为平均耗时乘以进行中的请求数加一，GC停顿或队列积压的节点得分升高后被排除。
+ * 保留的节点仍由低级客户端轮询，某个节点失败时在保留的节点中重试。
+ * 平均耗时随空闲时间衰减，被排除的节点过一段时间重新得到请求，恢复后即可重新参与；尚无记录的节点得分为0，优先得到请求
+ * <p>
+ * 耗时由{@link #track(CloseableHttpAsyncClient)}包装的HTTP客户端记录，滚动、批量写入等耗时较长的请求同样计入。
+ * 连接失败、429和5xx响应往往很快返回，按实际耗时计入会让正在拒绝请求的节点得分更好，这些请求至少按{@link #FAILURE_PENALTY_NANOS}计入
+ *
+ * @author zhaogd
+ */
+public class LatencyAwareNodeSelector implements NodeSelector {
+
+    /**
+     * 新样本的权重
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * 失败请求计入的最小耗时
+     */
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long decayNanos;
+
+    private final ConcurrentMap<HttpHost, NodeStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param decayNanos 平均耗时的衰减时间，节点空闲该时间后平均耗时降为约三分之一
+     */
+    public LatencyAwareNodeSelector(long decayNanos) {
+        this.decayNanos = decayNanos;
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        final List<Node> candidates = new ArrayList<>();
+        nodes.forEach(candidates::add);
+        if (candidates.size() <= 2) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        candidates.sort(Comparator.comparingDouble(node -> score(node.getHost(), now)));
+        final List<Node> excluded = candidates.subList(Math.max(2, (candidates.size() + 1) / 2), candidates.size());
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+            if (excluded.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    private double score(HttpHost host, long now) {
+        final NodeStats node = stats.get(host);
+        return node == null ? 0 : node.latency(now) * (node.outstanding.get() + 1);
+    }
+
+    /**
+     * 包装HTTP客户端，记录每个节点的请求数和耗时
+     */
+    public CloseableHttpAsyncClient track(CloseableHttpAsyncClient client) {
+        return new TrackingHttpAsyncClient(client);
+    }
+
+    private class TrackingHttpAsyncClient extends ForwardingHttpAsyncClient {
+
+        private TrackingHttpAsyncClient(CloseableHttpAsyncClient delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                     HttpContext context, FutureCallback<T> callback) {
+            final NodeStats node = stats.computeIfAbsent(requestProducer.getTarget(), host -> new NodeStats());
+            node.outstanding.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                return delegate.execute(requestProducer, responseConsumer, context, tracking(node, start, callback));
+            } catch (RuntimeException e) {
+                node.outstanding.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private <T> FutureCallback<T> tracking(NodeStats node, long start, FutureCallback<T> callback) {
+        return new FutureCallback<T>() {
+            @Override
+            public void completed(T result) {
+                node.record(start, isFailure(result));
+                if (callback != null) {
+                    callback.completed(result);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                node.record(start, true);
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                node.outstanding.decrementAndGet();
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        };
+    }
+
+    /**
+     * 节点拒绝或无法处理请求
+     */
+    private static boolean isFailure(Object result) {
+        if (!(result instanceof HttpResponse)) {
+            return false;
+        }
+        final int status = ((HttpResponse) result).getStatusLine().getStatusCode();
+        return status == RestStatus.TOO_MANY_REQUESTS.getStatus() || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private class NodeStats {
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private boolean measured;
+        private double latency;
+        private long updated;
+
+        private void record(long start, boolean failed) {
+            final long now = System.nanoTime();
+            outstanding.decrementAndGet();
+            final long sample = failed ? Math.max(now - start, FAILURE_PENALTY_NANOS) : now - start;
+            synchronized (this) {
+                final double decayed = latency(now);
+                latency = measured ? decayed + ALPHA * (sample - decayed) : sample;
+                measured = true;
+                updated = now;
+            }
+        }
+
+        private synchronized double latency(long now) {
+            if (!measured) {
+                return 0;
+            }
+            return latency * Math.exp(-(double) (now - updated) / decayNanos);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.scott.elastic.limit;
+
+/**
+ * 调用超出操作类别的并发上限且未能在排队时间内等到空位
+ *
+ * @author zhaogd
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,232 @@
+package com.scott.elastic.limit;
+
+import com.scott.elastic.metrics.EsMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限制：按操作类别限制同时进行的调用数，上限随耗时的梯度调整
+ * <p>
+ * 每次调用结束后比较本次耗时与最近的最小耗时，最小耗时近似无排队时的耗时：本次耗时在最小耗时的容忍倍数以内时
+ * 上限按平方根的步长增加，超出后按两者的比例收缩，最多减半，集群排队变长时在途调用随之减少。
+ * 最小耗时取最近两个窗口内的最小值，网络或集群的基准耗时变化后随窗口滚动更新。
+ * 在途调用不到上限一半时不再增加，避免空闲时上限无限增长
+ * <p>
+ * 超出上限的调用最多排队等待配置的时间，排队数不超过上限，仍未等到空位时抛出{@link ConcurrencyLimitExceededException}。
+ * 同一线程内嵌套的调用不再占用，避免按查询更新后的补偿写入等待自己释放
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class ConcurrencyLimiter {
+
+    /**
+     * 上限每次向新估计值移动的比例
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * 本次耗时在最小耗时的该倍数以内时不收缩上限，容忍同一类别内不同请求的耗时差异
+     */
+    private static final double TOLERANCE = 2.0;
+
+    /**
+     * 最小耗时的统计窗口
+     */
+    private static final long MIN_RTT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * 不受限制或嵌套调用使用的空许可
+     */
+    private static final Permit NOOP = () -> {
+    };
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long queueTimeoutNanos;
+
+    private final Map<OperationClass, Limit> limits = new EnumMap<>(OperationClass.class);
+
+    /**
+     * 当前线程是否已持有许可
+     */
+    private final ThreadLocal<Boolean> holding = new ThreadLocal<>();
+
+    /**
+     * @param initialLimit      各类别的初始并发上限
+     * @param minLimit          并发上限的下限
+     * @param maxLimit          并发上限的上限
+     * @param queueTimeoutNanos 超出上限时的最长排队时间，0表示立即拒绝
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long queueTimeoutNanos) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.queueTimeoutNanos = queueTimeoutNanos;
+        for (OperationClass type : OperationClass.values()) {
+            limits.put(type, new Limit(type, Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit))));
+        }
+    }
+
+    /**
+     * 登记各类别的并发上限、在途调用数和拒绝次数
+     */
+    public void bindTo(EsMetrics metrics) {
+        for (Limit limit : limits.values()) {
+            final String prefix = "es.concurrency." + limit.type.name().toLowerCase(Locale.ROOT);
+            metrics.gauge(prefix + ".limit", "Current concurrency limit", () -> (int) limit.limit);
+            metrics.gauge(prefix + ".in.flight", "Calls in flight", () -> limit.inFlight);
+            metrics.counter(prefix + ".rejected", "Calls rejected by the concurrency limit", limit.rejected::sum);
+        }
+    }
+
+    /**
+     * 为操作占用一个许可，调用结束后必须释放
+     *
+     * @param operation 模板的操作名称
+     * @throws ConcurrencyLimitExceededException 超出上限且排队超时
+     */
+    public Permit acquire(String operation) {
+        final OperationClass type = OperationClass.of(operation);
+        if (type == null || holding.get() != null) {
+            return NOOP;
+        }
+        final Permit permit = limits.get(type).acquire(operation);
+        holding.set(Boolean.TRUE);
+        return () -> {
+            holding.remove();
+            permit.release();
+        };
+    }
+
+    public int getLimit(OperationClass type) {
+        return (int) limits.get(type).limit;
+    }
+
+    public int getInFlight(OperationClass type) {
+        return limits.get(type).inFlight;
+    }
+
+    public long getRejected(OperationClass type) {
+        return limits.get(type).rejected.sum();
+    }
+
+    /**
+     * 一次调用占用的许可
+     */
+    public interface Permit {
+
+        /**
+         * 释放许可并以占用时长更新并发上限
+         */
+        void release();
+    }
+
+    /**
+     * 单个操作类别的并发上限，状态统一在锁内读写
+     */
+    private class Limit {
+
+        private final OperationClass type;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+
+        private volatile double limit;
+        private volatile int inFlight;
+        private int waiting;
+
+        /**
+         * 当前窗口和上一窗口内的最小耗时纳秒
+         */
+        private long windowStart = System.nanoTime();
+        private long windowMinRtt = Long.MAX_VALUE;
+        private long previousMinRtt = Long.MAX_VALUE;
+
+        private final LongAdder rejected = new LongAdder();
+
+        private Limit(OperationClass type, int initialLimit) {
+            this.type = type;
+            this.limit = initialLimit;
+        }
+
+        private Permit acquire(String operation) {
+            lock.lock();
+            try {
+                if (inFlight >= (int) limit) {
+                    if (queueTimeoutNanos <= 0 || waiting >= (int) limit) {
+                        throw rejected(operation);
+                    }
+                    waiting++;
+                    try {
+                        long nanos = queueTimeoutNanos;
+                        while (inFlight >= (int) limit) {
+                            if (nanos <= 0) {
+                                throw rejected(operation);
+                            }
+                            nanos = available.awaitNanos(nanos);
+                        }
+                    } finally {
+                        waiting--;
+                    }
+                }
+                final int concurrency = ++inFlight;
+                final long start = System.nanoTime();
+                return () -> release(System.nanoTime() - start, concurrency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConcurrencyLimitExceededException("Interrupted while waiting for " + type + " concurrency limit");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(long rtt, int concurrency) {
+            lock.lock();
+            try {
+                inFlight--;
+                final int before = (int) limit;
+                update(Math.max(1, rtt), concurrency);
+                if ((int) limit > before) {
+                    available.signalAll();
+                } else {
+                    available.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void update(long rtt, int concurrency) {
+            final long now = System.nanoTime();
+            if (now - windowStart >= MIN_RTT_WINDOW_NANOS) {
+                previousMinRtt = windowMinRtt;
+                windowMinRtt = rtt;
+                windowStart = now;
+            } else {
+                windowMinRtt = Math.min(windowMinRtt, rtt);
+            }
+            final long minRtt = Math.min(previousMinRtt, windowMinRtt);
+            final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / rtt));
+            if (gradient == 1.0 && concurrency < limit / 2) {
+                return;
+            }
+            final double estimate = limit * gradient + Math.sqrt(limit);
+            final double next = limit * (1 - SMOOTHING) + estimate * SMOOTHING;
+            limit = Math.max(minLimit, Math.min(maxLimit, next));
+        }
+
+        private ConcurrencyLimitExceededException rejected(String operation) {
+            rejected.increment();
+            log.debug("Reject {}, {} concurrency limit: [{}], in flight: [{}]", operation, type, (int) limit, inFlight);
+            return new ConcurrencyLimitExceededException("Concurrency limit exceeded for " + operation + ", "
+                    + type + " limit: [" + (int) limit + "], in flight: [" + inFlight + "]");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.scott.elastic.limit;
+
+/**
+ * 并发限制的操作类别，各类别的耗时差异较大，分别估算并发上限
+ *
+ * @author zhaogd
+ */
+public enum OperationClass {
+
+    /**
+     * get、mget、检索和滚动
+     */
+    READ,
+
+    /**
+     * 同步批量写入、按查询更新和刷新
+     */
+    WRITE,
+
+    /**
+     * 聚合类检索
+     */
+    AGGREGATION;
+
+    /**
+     * 按模板的操作名称归类
+     *
+     * @return 操作类别，分片导出和清除滚动不受限制，返回空
+     */
+    public static OperationClass of(String operation) {
+        switch (operation) {
+            case "aggregation":
+            case "searchIndexAndAggs":
+                return AGGREGATION;
+            case "bulk":
+            case "updateByQuery":
+            case "refresh":
+                return WRITE;
+            case "exportBySlices":
+            case "clearScroll":
+                return null;
+            default:
+                return READ;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.scott.elastic.log;
+
+import com.scott.elastic.http.EsRequestOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.profile.ProfileResult;
+import org.elasticsearch.search.profile.ProfileShardResult;
+import org.elasticsearch.search.profile.query.QueryProfileShardResult;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求日志，只有慢请求或被采样的请求才会把请求体渲染成JSON输出，其余请求不做任何序列化
+ * <p>
+ * 慢请求以WARN级别输出，采样请求以INFO级别输出。开启剖析时，慢检索会带上profile重新执行一次，
+ * 输出各分片的查询和聚合耗时，两次剖析之间至少间隔配置的时间，避免慢查询时加重集群负担
+ *
+ * @author zhaogd
+ */
+@Slf4j
+public class SlowRequestLog {
+
+    /**
+     * 不输出任何请求
+     */
+    public static final SlowRequestLog DISABLED = new SlowRequestLog(Long.MAX_VALUE, 0, false, 0);
+
+    private static final int MAX_DESCRIPTION_LENGTH = 200;
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final boolean profile;
+    private final long profileIntervalNanos;
+
+    private final AtomicLong lastProfile = new AtomicLong();
+
+    /**
+     * @param thresholdMillis       慢请求阈值
+     * @param sampleRate            未超过阈值的请求的采样比例，0到1之间
+     * @param profile               是否对慢检索做剖析
+     * @param profileIntervalMillis 两次剖析的最小间隔
+     */
+    public SlowRequestLog(long thresholdMillis, double sampleRate, boolean profile, long profileIntervalMillis) {
+        this.thresholdNanos = thresholdMillis == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleRate = sampleRate;
+        this.profile = profile;
+        this.profileIntervalNanos = TimeUnit.MILLISECONDS.toNanos(profileIntervalMillis);
+        this.lastProfile.set(System.nanoTime() - profileIntervalNanos);
+    }
+
+    /**
+     * 按耗时和采样决定是否输出请求
+     *
+     * @param client    客户端，用于剖析时重新执行检索
+     * @param operation 操作名称
+     * @param index     索引名称
+     * @param request   请求，输出时才调用其toString
+     * @param nanos     往返耗时纳秒
+     * @param error     失败时的异常，成功为空
+     */
+    public void log(RestHighLevelClient client, String operation, String index, Object request, long nanos, Throwable error) {
+        if (request == null) {
+            return;
+        }
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (nanos >= thresholdNanos) {
+            log.warn("Slow es request [{}] on [{}] took [{}]ms{}, request: {}",
+                    operation, index, millis, error == null ? "" : " and failed", request);
+            if (profile && request instanceof SearchRequest && acquireProfile()) {
+                profile(client, operation, (SearchRequest) request);
+            }
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            log.info("Sampled es request [{}] on [{}] took [{}]ms{}, request: {}",
+                    operation, index, millis, error == null ? "" : " and failed", request);
+        }
+    }
+
+    private boolean acquireProfile() {
+        final long now = System.nanoTime();
+        final long last = lastProfile.get();
+        return now - last >= profileIntervalNanos && lastProfile.compareAndSet(last, now);
+    }
+
+    /**
+     * 以profile模式异步重新执行检索，不影响调用方
+     */
+    private void profile(RestHighLevelClient client, String operation, SearchRequest request) {
+        final SearchSourceBuilder source = request.source() == null
+                ? new SearchSourceBuilder() : request.source().copyWithNewSlice(request.source().slice());
+        final SearchRequest profileRequest = new SearchRequest(request)
+                .source(source.profile(true))
+                .scroll((Scroll) null);
+
+        client.searchAsync(profileRequest, EsRequestOptions.of(client), new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                log.warn("Profile of slow es request [{}], took [{}]ms:{}", operation, response.getTook().millis(),
+                        render(response.getProfileResults()));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                log.warn("Unable to profile slow es request [{}]", operation, e);
+            }
+        });
+    }
+
+    private static String render(Map<String, ProfileShardResult> results) {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, ProfileShardResult> shard : results.entrySet()) {
+            sb.append("\n  shard ").append(shard.getKey());
+            for (QueryProfileShardResult query : shard.getValue().getQueryProfileResults()) {
+                sb.append("\n    rewrite ").append(nanosToMillis(query.getRewriteTime())).append("ms");
+                render(sb, query.getQueryResults(), 2);
+                if (query.getCollectorResult() != null) {
+                    sb.append("\n    collector ").append(query.getCollectorResult().getName())
+                            .append(' ').append(nanosToMillis(query.getCollectorResult().getTime())).append("ms");
+                }
+            }
+            if (shard.getValue().getAggregationProfileResults() != null) {
+                render(sb, shard.getValue().getAggregationProfileResults().getProfileResults(), 2);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void render(StringBuilder sb, List<ProfileResult> results, int depth) {
+        for (ProfileResult result : results) {
+            sb.append('\n');
+            for (int i = 0; i < depth; i++) {
+                sb.append("  ");
+            }
+            String description = result.getLuceneDescription();
+            if (description.length() > MAX_DESCRIPTION_LENGTH) {
+                description = description.substring(0, MAX_DESCRIPTION_LENGTH) + "...";
+            }
+            sb.append(result.getQueryName()).append(' ').append(nanosToMillis(result.getTime())).append("ms ")
+                    .append(description);
+            render(sb, result.getProfiledChildren(), depth + 1);
+        }
+    }
+
+    private static String nanosToMillis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000d);
+    }
+}
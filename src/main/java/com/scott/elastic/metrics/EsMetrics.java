@@ -0,0 +1,95 @@
+package com.scott.elastic.metrics;
+
+import java.util.function.Supplier;
+
+/**
+ * es操作指标记录，按操作名称和索引区分，不依赖具体的指标库
+ *
+ * @author zhaogd
+ */
+public interface EsMetrics {
+
+    /**
+     * 不记录任何指标
+     */
+    EsMetrics NOOP = new EsMetrics() {
+        @Override
+        public void recordLatency(String operation, String index, long nanos, Throwable error) {
+        }
+
+        @Override
+        public void recordTook(String operation, String index, long tookMillis) {
+        }
+
+        @Override
+        public void recordResultSize(String operation, String index, long size) {
+        }
+
+        @Override
+        public void gauge(String name, String description, Supplier<Number> value) {
+        }
+
+        @Override
+        public void counter(String name, String description, Supplier<Number> total) {
+        }
+    };
+
+    /**
+     * 记录客户端往返耗时，包含序列化、网络和响应解析
+     *
+     * @param operation 操作名称
+     * @param index     索引名称
+     * @param nanos     耗时纳秒
+     * @param error     失败时的异常，成功为空
+     */
+    void recordLatency(String operation, String index, long nanos, Throwable error);
+
+    /**
+     * 记录es服务端返回的took耗时，与往返耗时的差值即为客户端与网络开销
+     *
+     * @param operation  操作名称
+     * @param index      索引名称
+     * @param tookMillis 服务端耗时毫秒
+     */
+    void recordTook(String operation, String index, long tookMillis);
+
+    /**
+     * 记录返回结果条数
+     *
+     * @param operation 操作名称
+     * @param index     索引名称
+     * @param size      结果条数
+     */
+    void recordResultSize(String operation, String index, long size);
+
+    /**
+     * 登记一个瞬时值指标，由指标库在采集时读取
+     *
+     * @param name        指标名称
+     * @param description 指标说明
+     * @param value       当前值
+     */
+    void gauge(String name, String description, Supplier<Number> value);
+
+    /**
+     * 登记一个单调递增的计数指标，由指标库在采集时读取累计值
+     *
+     * @param name        指标名称
+     * @param description 指标说明
+     * @param total       累计值
+     */
+    void counter(String name, String description, Supplier<Number> total);
+
+    /**
+     * 将多个索引名称拼成一个标签值
+     *
+     * @param indices 索引名称
+     * @return 标签值，未指定索引时为_all
+     */
+    static String indexTag(String... indices) {
+        if (indices == null || indices.length == 0) {
+            return "_all";
+        }
+        return indices.length == 1 ? indices[0] : String.join(",", indices);
+    }
+}
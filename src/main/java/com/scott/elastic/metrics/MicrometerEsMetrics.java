@@ -0,0 +1,107 @@
+package com.scott.elastic.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 基于Micrometer的es操作指标
+ * <ul>
+ * <li>es.client.requests: 客户端往返耗时，按operation、index、outcome区分，发布p50/p95/p99</li>
+ * <li>es.client.took: es服务端took耗时</li>
+ * <li>es.client.result.size: 返回结果条数</li>
+ * <li>es.client.errors: 失败次数，按异常类型区分</li>
+ * <li>es.bulk.*: 异步批量写入管道的当前状态</li>
+ * </ul>
+ *
+ * @author zhaogd
+ */
+public class MicrometerEsMetrics implements EsMetrics {
+
+    private static final String OUTCOME_SUCCESS = "success";
+    private static final String OUTCOME_ERROR = "error";
+
+    private final MeterRegistry registry;
+
+    /**
+     * 缓存已注册的指标，避免每次调用都构建指标ID
+     */
+    private final ConcurrentMap<String, Timer> latencyTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> tookTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> resultSizes = new ConcurrentHashMap<>();
+
+    public MicrometerEsMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordLatency(String operation, String index, long nanos, Throwable error) {
+        final String outcome = error == null ? OUTCOME_SUCCESS : OUTCOME_ERROR;
+        latencyTimers.computeIfAbsent(key(operation, index, outcome), k -> Timer.builder("es.client.requests")
+                .description("Client round-trip time of Elasticsearch operations")
+                .tags(tags(operation, index).and("outcome", outcome))
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        if (error != null) {
+            final Throwable cause = error.getCause() != null ? error.getCause() : error;
+            Counter.builder("es.client.errors")
+                    .description("Failed Elasticsearch operations")
+                    .tags(tags(operation, index).and("exception", cause.getClass().getSimpleName()))
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    @Override
+    public void recordTook(String operation, String index, long tookMillis) {
+        tookTimers.computeIfAbsent(key(operation, index, null), k -> Timer.builder("es.client.took")
+                .description("Server side took time reported by Elasticsearch")
+                .tags(tags(operation, index))
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry))
+                .record(tookMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void recordResultSize(String operation, String index, long size) {
+        resultSizes.computeIfAbsent(key(operation, index, null), k -> DistributionSummary.builder("es.client.result.size")
+                .description("Number of documents returned or written by Elasticsearch operations")
+                .tags(tags(operation, index))
+                .register(registry))
+                .record(size);
+    }
+
+    @Override
+    public void gauge(String name, String description, Supplier<Number> value) {
+        Gauge.builder(name, value, v -> v.get().doubleValue())
+                .description(description)
+                .strongReference(true)
+                .register(registry);
+    }
+
+    @Override
+    public void counter(String name, String description, Supplier<Number> total) {
+        FunctionCounter.builder(name, total, v -> v.get().doubleValue())
+                .description(description)
+                .register(registry);
+    }
+
+    private static Tags tags(String operation, String index) {
+        return Tags.of("operation", operation, "index", index);
+    }
+
+    private static String key(String operation, String index, String outcome) {
+        return operation + '\u0000' + index + '\u0000' + outcome;
+    }
+}
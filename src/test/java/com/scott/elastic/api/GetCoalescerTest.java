@@ -0,0 +1,106 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.metrics.EsMetrics;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同一窗口内的get合并为一次mget，重复的ID只查询一次，条目结果和失败都落到对应的调用方；关闭后的get单独发出
+ *
+ * @author zhaogd
+ */
+class GetCoalescerTest {
+
+    private static final String INDEX = "test";
+    private static final Pattern ID = Pattern.compile("\"_id\":\"([^\"]*)\"");
+
+    private StubEsServer server;
+    private RestHighLevelClient client;
+    private GetCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubEsServer(GetCoalescerTest::respond);
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+        coalescer = new GetCoalescer(client, TimeUnit.MILLISECONDS.toNanos(100), 100, EsMetrics.NOOP);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        coalescer.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void coalescesDuplicateIdsIntoOneMget() throws Exception {
+        final CompletableFuture<GetResponse> first = coalescer.get(INDEX, null, "1");
+        final CompletableFuture<GetResponse> duplicate = coalescer.get(INDEX, null, "1");
+        final CompletableFuture<GetResponse> second = coalescer.get(INDEX, null, "2");
+
+        assertEquals("1", first.get(10, TimeUnit.SECONDS).getId());
+        assertEquals("1", duplicate.get(10, TimeUnit.SECONDS).getId());
+        assertEquals("2", second.get(10, TimeUnit.SECONDS).getId());
+        assertEquals(Collections.singletonList("/_mget"), server.getPaths());
+    }
+
+    @Test
+    void failedItemFailsOnlyItsCaller() throws Exception {
+        final CompletableFuture<GetResponse> before = coalescer.get(INDEX, null, "1");
+        final CompletableFuture<GetResponse> failed = coalescer.get(INDEX, null, "bad");
+        final CompletableFuture<GetResponse> after = coalescer.get(INDEX, null, "2");
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ElasticsearchException, e.getCause().toString());
+        assertEquals("1", before.get(10, TimeUnit.SECONDS).getId());
+        assertEquals("2", after.get(10, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    void getsDirectlyAfterClose() throws Exception {
+        coalescer.close();
+
+        assertEquals("1", coalescer.get(INDEX, null, "1").get(10, TimeUnit.SECONDS).getId());
+        assertEquals(Collections.singletonList("/" + INDEX + "/_doc/1"), server.getPaths());
+    }
+
+    private static String respond(String path, String body) {
+        if (!path.endsWith("/_mget")) {
+            return doc(path.substring(path.lastIndexOf('/') + 1));
+        }
+        final List<String> docs = new ArrayList<>();
+        final Matcher matcher = ID.matcher(body);
+        while (matcher.find()) {
+            final String id = matcher.group(1);
+            docs.add("bad".equals(id)
+                    ? "{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"" + id
+                    + "\",\"error\":{\"type\":\"routing_missing_exception\",\"reason\":\"routing is required\"}}"
+                    : doc(id));
+        }
+        return "{\"docs\":[" + String.join(",", docs) + "]}";
+    }
+
+    private static String doc(String id) {
+        return "{\"_index\":\"" + INDEX + "\",\"_type\":\"_doc\",\"_id\":\"" + id
+                + "\",\"_version\":1,\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":{}}";
+    }
+}
@@ -0,0 +1,102 @@
+package com.scott.elastic.api;
+
+import com.scott.elastic.metrics.EsMetrics;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同一窗口内的检索合并为一次msearch，各项响应和失败按位置落到对应的调用方；关闭后的检索单独发出
+ *
+ * @author zhaogd
+ */
+class SearchBatcherTest {
+
+    private static final String MISSING = "missing";
+    private static final Pattern INDEX = Pattern.compile("\"index\":\\[?\"([^\"]*)\"");
+
+    private StubEsServer server;
+    private RestHighLevelClient client;
+    private SearchBatcher batcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubEsServer(SearchBatcherTest::respond);
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+        batcher = new SearchBatcher(client, TimeUnit.MILLISECONDS.toNanos(100), 100, EsMetrics.NOOP);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        batcher.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void mapsItemFailuresToTheirCallers() throws Exception {
+        final CompletableFuture<SearchResponse> first = batcher.search(new SearchRequest("idx-1"));
+        final CompletableFuture<SearchResponse> failed = batcher.search(new SearchRequest(MISSING));
+        final CompletableFuture<SearchResponse> third = batcher.search(new SearchRequest("idx-3"));
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ElasticsearchException, e.getCause().toString());
+        assertEquals(1, first.get(10, TimeUnit.SECONDS).getHits().getTotalHits().value);
+        assertEquals(3, third.get(10, TimeUnit.SECONDS).getHits().getTotalHits().value);
+        assertEquals(Collections.singletonList("/_msearch"), server.getPaths());
+    }
+
+    @Test
+    void searchesDirectlyAfterClose() throws Exception {
+        batcher.close();
+
+        assertEquals(2, batcher.search(new SearchRequest("idx-2")).get(10, TimeUnit.SECONDS)
+                .getHits().getTotalHits().value);
+        assertEquals(Collections.singletonList("/idx-2/_search"), server.getPaths());
+    }
+
+    /**
+     * 索引idx-N的检索命中N条，missing索引返回404
+     */
+    private static String respond(String path, String body) {
+        if (!path.endsWith("/_msearch")) {
+            return search(path.substring(1, path.indexOf('/', 1)));
+        }
+        final List<String> responses = new ArrayList<>();
+        final Matcher matcher = INDEX.matcher(body);
+        while (matcher.find()) {
+            final String index = matcher.group(1);
+            responses.add(MISSING.equals(index)
+                    ? "{\"error\":{\"root_cause\":[],\"type\":\"index_not_found_exception\",\"reason\":\"no such index\"},"
+                    + "\"status\":404}"
+                    : search(index));
+        }
+        return "{\"took\":1,\"responses\":[" + String.join(",", responses) + "]}";
+    }
+
+    private static String search(String index) {
+        final String hits = index.substring(index.indexOf('-') + 1);
+        return "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":" + hits + ",\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]},"
+                + "\"status\":200}";
+    }
+}
@@ -0,0 +1,74 @@
+package com.scott.elastic.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+
+/**
+ * 按请求路径和请求体生成响应的替身服务，记录收到的请求路径
+ *
+ * @author zhaogd
+ */
+final class StubEsServer implements Closeable {
+
+    private final HttpServer server;
+    private final BiFunction<String, String, String> responder;
+    private final List<String> paths = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param responder 由请求路径和请求体生成json响应
+     */
+    StubEsServer(BiFunction<String, String, String> responder) throws IOException {
+        this.responder = responder;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    HttpHost getHttpHost() {
+        return new HttpHost(server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    List<String> getPaths() {
+        return paths;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        paths.add(path);
+        final String request;
+        try (InputStream in = exchange.getRequestBody()) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            request = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        final byte[] body = responder.apply(path, request).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,127 @@
+package com.scott.elastic.bulk;
+
+import com.scott.elastic.config.ElasticSearchConfig;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 一批中部分条目被429拒绝、重试轮次又混有成功与不可重试失败时，重试与死信都要落到对应的请求上
+ *
+ * @author zhaogd
+ */
+class BulkItemRetryHandlerTest {
+
+    private StubBulkServer server;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubBulkServer();
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void retriesRejectedItemsAndDeadLettersByRequest() throws Exception {
+        server.respond("b", 429, 201);
+        server.respond("c", 429, 400);
+
+        final Map<String, String> deadLetters = new ConcurrentHashMap<>();
+        final BulkIngester ingester = new BulkIngester(client, config(),
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        for (String id : Arrays.asList("a", "b", "c", "d")) {
+            ingester.add(new IndexRequest(StubBulkServer.INDEX).id(id).source("{}", XContentType.JSON));
+        }
+        ingester.flush();
+        awaitItems(server, 6);
+        ingester.awaitClose(10, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), server.getRounds().get(0));
+        assertEquals(1, server.attempts("a"));
+        assertEquals(2, server.attempts("b"));
+        assertEquals(2, server.attempts("c"));
+        assertEquals(1, server.attempts("d"));
+        assertEquals(Collections.singleton("c"), deadLetters.keySet());
+        assertTrue(deadLetters.get("c").startsWith("BAD_REQUEST"), deadLetters.get("c"));
+    }
+
+    @Test
+    void retriesItemsOfRejectedRequest() throws Exception {
+        server.rejectRequests(1);
+
+        final Map<String, String> deadLetters = new ConcurrentHashMap<>();
+        final BulkIngester ingester = new BulkIngester(client, config(),
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        for (String id : Arrays.asList("a", "b")) {
+            ingester.add(new IndexRequest(StubBulkServer.INDEX).id(id).source("{}", XContentType.JSON));
+        }
+        ingester.flush();
+        awaitItems(server, 2);
+        ingester.awaitClose(10, TimeUnit.SECONDS);
+
+        assertEquals(1, server.rejected());
+        assertEquals(1, server.attempts("a"));
+        assertEquals(1, server.attempts("b"));
+        assertEquals(Collections.emptyMap(), deadLetters);
+    }
+
+    @Test
+    void deadLettersRejectedRequestAfterRetries() throws Exception {
+        server.rejectRequests(Integer.MAX_VALUE);
+
+        final ElasticSearchConfig config = config();
+        config.setBulkItemRetries(2);
+        final Map<String, String> deadLetters = new ConcurrentHashMap<>();
+        final BulkIngester ingester = new BulkIngester(client, config,
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        ingester.add(new IndexRequest(StubBulkServer.INDEX).id("a").source("{}", XContentType.JSON));
+        ingester.flush();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (deadLetters.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        ingester.awaitClose(10, TimeUnit.SECONDS);
+
+        assertEquals(3, server.rejected());
+        assertEquals(Collections.singleton("a"), deadLetters.keySet());
+    }
+
+    static ElasticSearchConfig config() {
+        final ElasticSearchConfig config = new ElasticSearchConfig();
+        config.setFlushIntervalTime(20);
+        config.setFlushIntervalTimeUnit(TimeUnit.MILLISECONDS);
+        config.setBulkItemRetryInitialDelay(1);
+        return config;
+    }
+
+    /**
+     * 等待替身服务收到的条目数达到预期，重试轮次全部发出后再关闭，避免关闭时仍有排期中的重试
+     */
+    static void awaitItems(StubBulkServer server, int items) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.items() < items && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(items, server.items());
+    }
+}
@@ -0,0 +1,136 @@
+package com.scott.elastic.bulk;
+
+import com.scott.elastic.config.ElasticSearchConfig;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 重试轮次中成功与失败的条目都要确认到对应的记录上，全部有最终结果后段文件被删除；
+ * 整批临时失败不确认，请求留在预写日志中重试或在下次启动后重放
+ *
+ * @author zhaogd
+ */
+class BulkSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    private StubBulkServer server;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubBulkServer();
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void acknowledgesRecordsOfRetriedItems() throws Exception {
+        server.respond("b", 429, 201);
+        server.respond("c", 429, 400);
+
+        final ElasticSearchConfig config = spoolConfig();
+        final Map<String, String> deadLetters = new ConcurrentHashMap<>();
+        final BulkIngester ingester = new BulkIngester(client, config,
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        for (String id : Arrays.asList("a", "b", "c", "d")) {
+            ingester.add(new IndexRequest(StubBulkServer.INDEX).id(id).source("{}", XContentType.JSON));
+        }
+        ingester.flush();
+        BulkItemRetryHandlerTest.awaitItems(server, 6);
+        ingester.awaitClose(10, TimeUnit.SECONDS);
+
+        assertEquals(Collections.emptyList(), segments());
+        assertEquals(Collections.singleton("c"), deadLetters.keySet());
+    }
+
+    @Test
+    void retriesRejectedRequestsBeyondItemRetries() throws Exception {
+        server.rejectRequests(3);
+
+        final ElasticSearchConfig config = spoolConfig();
+        config.setBulkItemRetries(1);
+        final Map<String, String> deadLetters = new ConcurrentHashMap<>();
+        final BulkIngester ingester = new BulkIngester(client, config,
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        for (String id : Arrays.asList("a", "b")) {
+            ingester.add(new IndexRequest(StubBulkServer.INDEX).id(id).source("{}", XContentType.JSON));
+        }
+        ingester.flush();
+        BulkItemRetryHandlerTest.awaitItems(server, 2);
+        ingester.awaitClose(10, TimeUnit.SECONDS);
+
+        assertEquals(3, server.rejected());
+        assertEquals(Collections.emptyMap(), deadLetters);
+        assertEquals(Collections.emptyList(), segments());
+    }
+
+    @Test
+    void replaysRejectedRequestsPendingAtClose() throws Exception {
+        server.rejectRequests(Integer.MAX_VALUE);
+
+        final Map<String, String> deadLetters = new ConcurrentHashMap<>();
+        final BulkIngester ingester = new BulkIngester(client, spoolConfig(),
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        ingester.add(new IndexRequest(StubBulkServer.INDEX).id("a").source("{}", XContentType.JSON));
+        ingester.flush();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.rejected() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        ingester.awaitClose(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(Collections.emptyMap(), deadLetters);
+        assertEquals(1, segments().size());
+
+        server.rejectRequests(0);
+        final BulkIngester replayed = new BulkIngester(client, spoolConfig(),
+                (request, reason) -> deadLetters.put(request.id(), reason));
+        BulkItemRetryHandlerTest.awaitItems(server, 1);
+        replayed.awaitClose(10, TimeUnit.SECONDS);
+
+        assertEquals(Collections.emptyMap(), deadLetters);
+        assertEquals(Collections.emptyList(), segments());
+    }
+
+    private ElasticSearchConfig spoolConfig() {
+        final ElasticSearchConfig config = BulkItemRetryHandlerTest.config();
+        config.setBulkSpoolEnabled(true);
+        config.setBulkSpoolDir(directory.toString());
+        return config;
+    }
+
+    private List<Path> segments() throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            stream.forEach(segments::add);
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,159 @@
+package com.scott.elastic.bulk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 只响应_bulk的替身服务，按文档ID依次返回预设的状态码，预设用完后返回201，并记录每轮请求包含的文档；
+ * 也可让之后的若干次请求整批返回429
+ *
+ * @author zhaogd
+ */
+final class StubBulkServer implements Closeable {
+
+    static final String INDEX = "test";
+
+    private static final Pattern ACTION = Pattern.compile("^\\{\"(index|create|update|delete)\"");
+    private static final Pattern ID = Pattern.compile("\"_id\":\"([^\"]*)\"");
+
+    private final HttpServer server;
+    private final Map<String, Deque<Integer>> statuses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private final List<List<String>> rounds = new CopyOnWriteArrayList<>();
+    private final AtomicInteger rejectRequests = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    StubBulkServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    HttpHost getHttpHost() {
+        return new HttpHost(server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    /**
+     * 文档在各轮请求中依次收到的状态码
+     */
+    void respond(String id, Integer... statuses) {
+        this.statuses.put(id, new ArrayDeque<>(Arrays.asList(statuses)));
+    }
+
+    /**
+     * 之后的若干次_bulk请求整批返回429，不处理其中的条目
+     */
+    void rejectRequests(int count) {
+        rejectRequests.set(count);
+    }
+
+    int rejected() {
+        return rejected.get();
+    }
+
+    int attempts(String id) {
+        final AtomicInteger count = attempts.get(id);
+        return count == null ? 0 : count.get();
+    }
+
+    int items() {
+        return rounds.stream().mapToInt(List::size).sum();
+    }
+
+    List<List<String>> getRounds() {
+        return rounds;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            if (exchange.getRequestURI().getPath().endsWith("/_bulk")
+                    && rejectRequests.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                rejected.incrementAndGet();
+                final byte[] body = ("{\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"},"
+                        + "\"status\":429}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(429, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                return;
+            }
+            final byte[] body = exchange.getRequestURI().getPath().endsWith("/_bulk")
+                    ? bulk(in) : "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private byte[] bulk(InputStream in) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        final List<String> ids = new ArrayList<>();
+        final StringBuilder items = new StringBuilder();
+        boolean errors = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final Matcher action = ACTION.matcher(line);
+            if (!action.find()) {
+                continue;
+            }
+            final String opType = action.group(1);
+            if (!"delete".equals(opType)) {
+                reader.readLine();
+            }
+            final Matcher idMatcher = ID.matcher(line);
+            final String id = idMatcher.find() ? idMatcher.group(1) : String.valueOf(ids.size());
+            ids.add(id);
+            attempts.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+
+            final Deque<Integer> scripted = statuses.get(id);
+            final Integer next = scripted == null ? null : scripted.poll();
+            final int status = next == null ? 201 : next;
+
+            if (items.length() > 0) {
+                items.append(',');
+            }
+            items.append("{\"").append(opType).append("\":{\"_index\":\"").append(INDEX)
+                    .append("\",\"_type\":\"_doc\",\"_id\":\"").append(id).append("\",\"status\":").append(status);
+            if (status >= 300) {
+                errors = true;
+                final String type = status == 429 ? "es_rejected_execution_exception" : "mapper_parsing_exception";
+                items.append(",\"error\":{\"type\":\"").append(type).append("\",\"reason\":\"").append(type).append("\"}}}");
+            } else {
+                items.append(",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}")
+                        .append(",\"_seq_no\":0,\"_primary_term\":1}}");
+            }
+        }
+        rounds.add(ids);
+        return ("{\"took\":1,\"errors\":" + errors + ",\"items\":[" + items + "]}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
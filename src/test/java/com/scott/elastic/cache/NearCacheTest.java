@@ -0,0 +1,64 @@
+package com.scott.elastic.cache;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 与写入并发的读取拿到旧结果后放回缓存，失效之后的读取不能再命中这个旧结果
+ *
+ * @author zhaogd
+ */
+class NearCacheTest {
+
+    private static final String INDEX = "test";
+    private static final String VARIANT = NearCache.variant("get", null);
+
+    private final NearCache cache = new NearCache(Collections.singleton(INDEX), 100, TimeUnit.MINUTES.toMillis(1));
+
+    @Test
+    void staleReadAfterInvalidationIsNotServed() {
+        cache.entry(INDEX, "1").put(VARIANT, "v1");
+
+        // 读取先取得条目并从集群拿到旧结果，写入在放回缓存前完成并失效
+        final NearCache.Entry reading = cache.entry(INDEX, "1");
+        cache.invalidate(new IndexRequest(INDEX).id("1").source("{}", XContentType.JSON));
+        reading.put(VARIANT, "v1");
+
+        assertNull(cache.entry(INDEX, "1").get(VARIANT));
+    }
+
+    @Test
+    void staleReadAfterBulkIsNotServed() {
+        final NearCache.Entry reading = cache.entry(INDEX, "1");
+        final BulkRequest bulk = new BulkRequest().add(new IndexRequest(INDEX).id("1").source("{}", XContentType.JSON));
+        cache.afterBulk(1, bulk, new IllegalStateException("failed"));
+        reading.put(VARIANT, "v1");
+
+        assertNull(cache.entry(INDEX, "1").get(VARIANT));
+    }
+
+    @Test
+    void staleReadAfterIndexInvalidationIsNotServed() {
+        final NearCache.Entry reading = cache.entry(INDEX, "1");
+        cache.invalidateAll(INDEX);
+        reading.put(VARIANT, "v1");
+
+        assertNull(cache.entry(INDEX, "1").get(VARIANT));
+    }
+
+    @Test
+    void uncoveredIndexIsIgnored() {
+        cache.entry(INDEX, "1").put(VARIANT, "v1");
+        cache.invalidate("other", "1");
+
+        assertEquals("v1", cache.entry(INDEX, "1").get(VARIANT));
+    }
+}
@@ -0,0 +1,155 @@
+package com.scott.elastic.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 耗时变长时上限收缩、恢复后回升，排队超时后拒绝，同一线程内嵌套的调用不再占用许可
+ *
+ * @author zhaogd
+ */
+class ConcurrencyLimiterTest {
+
+    /**
+     * 无排队时的耗时
+     */
+    private static final long BASE_MILLIS = 20;
+
+    /**
+     * 集群排队后的耗时，超出最小耗时的容忍倍数
+     */
+    private static final long SLOW_MILLIS = 100;
+
+    @Test
+    void shrinksWhenLatencyInflates() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 1, 100, TimeUnit.SECONDS.toNanos(1));
+        shrink(limiter);
+    }
+
+    @Test
+    void growsBackWhenLatencyRecovers() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 1, 100, TimeUnit.SECONDS.toNanos(1));
+        final int shrunk = shrink(limiter);
+
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (int round = 0; round < 10 && limiter.getLimit(OperationClass.READ) <= shrunk; round++) {
+                // 占满上限，在途调用超过一半时耗时正常才会增加上限
+                final int calls = limiter.getLimit(OperationClass.READ);
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < calls; i++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        call(limiter, BASE_MILLIS);
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(limiter.getLimit(OperationClass.READ) > shrunk,
+                limiter.getLimit(OperationClass.READ) + " <= " + shrunk);
+    }
+
+    @Test
+    void rejectsAfterQueueTimeout() throws Exception {
+        final long timeoutMillis = 50;
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            final Future<?> holder = executor.submit(() -> {
+                final ConcurrencyLimiter.Permit permit = limiter.acquire("search");
+                acquired.countDown();
+                done.await();
+                permit.release();
+                return null;
+            });
+            acquired.await();
+
+            final long start = System.nanoTime();
+            assertThrows(ConcurrencyLimitExceededException.class, () -> limiter.acquire("search"));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            assertEquals(1, limiter.getRejected(OperationClass.READ));
+            assertEquals(1, limiter.getInFlight(OperationClass.READ));
+
+            done.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        limiter.acquire("search").release();
+        assertEquals(0, limiter.getInFlight(OperationClass.READ));
+    }
+
+    @Test
+    void nestedCallsDoNotTakeAnotherPermit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0);
+
+        final ConcurrencyLimiter.Permit outer = limiter.acquire("search");
+        final ConcurrencyLimiter.Permit nested = limiter.acquire("bulk");
+        final ConcurrencyLimiter.Permit sameClass = limiter.acquire("get");
+        assertEquals(1, limiter.getInFlight(OperationClass.READ));
+        assertEquals(0, limiter.getInFlight(OperationClass.WRITE));
+
+        sameClass.release();
+        nested.release();
+        assertEquals(1, limiter.getInFlight(OperationClass.READ));
+        outer.release();
+        assertEquals(0, limiter.getInFlight(OperationClass.READ));
+        assertEquals(0, limiter.getRejected(OperationClass.READ));
+
+        // 外层释放后不再视为嵌套，重新占用许可
+        final ConcurrencyLimiter.Permit next = limiter.acquire("search");
+        assertEquals(1, limiter.getInFlight(OperationClass.READ));
+        next.release();
+    }
+
+    /**
+     * 先以正常耗时确定最小耗时，再以变长的耗时调用，上限应当收缩
+     *
+     * @return 收缩后的上限
+     */
+    private static int shrink(ConcurrencyLimiter limiter) throws InterruptedException {
+        final int initial = limiter.getLimit(OperationClass.READ);
+        for (int i = 0; i < 3; i++) {
+            call(limiter, BASE_MILLIS);
+        }
+        assertEquals(initial, limiter.getLimit(OperationClass.READ));
+
+        for (int i = 0; i < 5; i++) {
+            call(limiter, SLOW_MILLIS);
+        }
+        final int shrunk = limiter.getLimit(OperationClass.READ);
+        assertTrue(shrunk < initial, shrunk + " >= " + initial);
+        return shrunk;
+    }
+
+    private static void call(ConcurrencyLimiter limiter, long millis) throws InterruptedException {
+        final ConcurrencyLimiter.Permit permit = limiter.acquire("search");
+        try {
+            Thread.sleep(millis);
+        } finally {
+            permit.release();
+        }
+    }
+}